@@ -0,0 +1,113 @@
+#*
+ * Copyright (c) 2017 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or data
+ * (collectively the "Software"), free of charge and under any and all copyright
+ * rights in the Software, and any and all patent rights owned or freely
+ * licensable by each licensor hereunder covering either (i) the unmodified
+ * Software as contributed to or provided by such licensor, or (ii) the Larger
+ * Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ *
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ *
+ * The above copyright notice and either this complete permission notice or at a
+ * minimum a reference to the UPL must be included in all copies or substantial
+ * portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *#
+
+package ${package};
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/** Measures per-request cost of {@link Router#dispatch} with 4 and 100
+ * registered routes and compares it with a chain of {@code startsWith}
+ * checks.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class RouterBenchmark {
+    @Param({ "4", "100" })
+    int routes;
+
+    private Router router;
+    private String[] prefixes;
+    private String[] urls;
+    private int index;
+    private Blackhole sink;
+
+    @Setup
+    public void initialize(Blackhole blackhole) {
+        sink = blackhole;
+        prefixes = new String[routes - 1];
+        router = new Router();
+        router.exact("/quit", (n, in, out) -> sink.consume(n));
+        for (int i = 0; i < prefixes.length; i++) {
+            prefixes[i] = "/alg" + i + "/";
+            router.prefix(prefixes[i], (n, in, out) -> sink.consume(n));
+        }
+        urls = new String[64];
+        for (int i = 0; i < urls.length; i++) {
+            urls[i] = prefixes[(i * 7) % prefixes.length] + (i * 13);
+        }
+    }
+
+    @Benchmark
+    public boolean router() {
+        return router.dispatch(urls[index++ & 63], null, null);
+    }
+
+    @Benchmark
+    public boolean startsWithChain() {
+        String url = urls[index++ & 63];
+        if (url.equals("/quit")) {
+            sink.consume(-1);
+            return true;
+        }
+        for (String prefix : prefixes) {
+            if (url.startsWith(prefix)) {
+                sink.consume(Integer.parseInt(url.substring(prefix.length())));
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,262 @@
+#*
+ * Copyright (c) 2017 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or data
+ * (collectively the "Software"), free of charge and under any and all copyright
+ * rights in the Software, and any and all patent rights owned or freely
+ * licensable by each licensor hereunder covering either (i) the unmodified
+ * Software as contributed to or provided by such licensor, or (ii) the Larger
+ * Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ *
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ *
+ * The above copyright notice and either this complete permission notice or at a
+ * minimum a reference to the UPL must be included in all copies or substantial
+ * portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *#
+
+package ${package};
+
+#if ($algorithmJava.equals("true"))
+import java.math.BigInteger;
+#end
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import org.graalvm.polyglot.Context;
+import org.graalvm.polyglot.Engine;
+import org.graalvm.polyglot.Source;
+import org.graalvm.polyglot.Value;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** Measures the polyglot call paths of {@link Services}. JMH runs the
+ * benchmarks in its own threads, which cannot enter the single threaded
+ * node.js context. Thus the benchmarks execute on GraalVM's {@code java}
+ * and give {@link Services} a {@link Services.Global} backed by a
+ * polyglot {@link Context}. Run them by:
+ * <pre>
+ * $ mvn test-compile exec:exec@benchmark
+ * </pre>
+ * the results are written as JSON into {@code target/jmh-result.json}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ServicesBenchmark {
+    @Param({ "20", "100" })
+    int n;
+
+    private Context context;
+    private ContextGlobal global;
+    private Services services;
+    private Services.Algorithms algorithms;
+#if ($algorithmJS.equals("true"))
+    private Object jsFunction;
+#end
+
+    @Setup
+    public void initialize() {
+        context = newContext();
+        global = new ContextGlobal(context);
+        services = new Services(null, global, null);
+        algorithms = services.new AlgorithmsImpl();
+#if ($algorithmJS.equals("true"))
+        jsFunction = global.Polyglot().eval("text/javascript", "(function(n) { return n; })");
+#end
+    }
+
+    @TearDown
+    public void close() {
+        context.close();
+    }
+#if ($algorithmJava.equals("true"))
+
+    @Benchmark
+    public BigInteger javaFactorial() {
+        return Services.multiplyRange(1, n);
+    }
+
+    @Benchmark
+    public BigInteger javaFactorialCached() {
+        return services.factorial(n);
+    }
+#end
+#if ($algorithmJS.equals("true"))
+
+    @Benchmark
+    public Number js() {
+        return algorithms.js(n);
+    }
+
+    @Benchmark
+    public Services.Computation cast() {
+        return global.cast(jsFunction, (Services.Computation) null);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @Warmup(iterations = 0)
+    @Measurement(iterations = 10)
+    public Number jsFirstCall(Cold cold) {
+        return cold.algorithms.js(n);
+    }
+#end
+#if ($algorithmRuby.equals("true"))
+
+    @Benchmark
+    public String ruby() {
+        return algorithms.ruby(n);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @Warmup(iterations = 0)
+    @Measurement(iterations = 10)
+    public String rubyFirstCall(Cold cold) {
+        return cold.algorithms.ruby(n);
+    }
+#end
+#if ($algorithmR.equals("true"))
+
+    @Benchmark
+    public Number r() {
+        return algorithms.r(n);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @Warmup(iterations = 0)
+    @Measurement(iterations = 10)
+    public Number rFirstCall(Cold cold) {
+        return cold.algorithms.r(n);
+    }
+#end
+
+    /** Fresh context for each invocation: the first call of an algorithm
+     * includes evaluation of its source. With {@code sharedEngine} the
+     * contexts share an engine, so the source is parsed and compiled only
+     * by the first of them.
+     */
+    @State(Scope.Thread)
+    public static class Cold {
+        @Param({ "false", "true" })
+        boolean sharedEngine;
+
+        Context context;
+        Services.Algorithms algorithms;
+
+        @Setup(Level.Invocation)
+        public void initialize() {
+            context = sharedEngine ? newContext(ENGINE) : newContext();
+            algorithms = new Services(null, new ContextGlobal(context), null).new AlgorithmsImpl();
+        }
+
+        @TearDown(Level.Invocation)
+        public void close() {
+            context.close();
+        }
+    }
+
+    /** Keeps code of cached sources compiled across the contexts using it. */
+    private static final Engine ENGINE = Engine.create();
+    private static final Map<GuestSource, Source> SOURCES = new ConcurrentHashMap<>();
+
+    static Context newContext() {
+        return Context.newBuilder().allowAllAccess(true).build();
+    }
+
+    static Context newContext(Engine engine) {
+        return Context.newBuilder().engine(engine).allowAllAccess(true).build();
+    }
+
+    static Source source(GuestSource guest) {
+        return SOURCES.computeIfAbsent(guest, (g) -> {
+            String language = Source.findLanguage(g.mimeType());
+            return Source.newBuilder(language, g.code(), g.name()).mimeType(g.mimeType()).cached(true).buildLiteral();
+        });
+    }
+
+    static final class ContextGlobal implements Services.Global, Services.Polyglot {
+        private final Context context;
+        private final Map<GuestSource, Value> evaluated = new HashMap<>();
+
+        ContextGlobal(Context context) {
+            this.context = context;
+        }
+
+        @Override
+        public Object evalSource(GuestSource source) {
+            return evaluated.computeIfAbsent(source, (s) -> context.eval(source(s)));
+        }
+
+        @Override
+        public Services.Polyglot Polyglot() {
+            return this;
+        }
+
+        @Override
+        public Object eval(String mimeType, String code) {
+            String language = Source.findLanguage(mimeType);
+            return context.eval(Source.newBuilder(language, code, "benchmark").mimeType(mimeType).buildLiteral());
+        }
+
+        @Override
+        public void export(String name, Object obj) {
+            context.getPolyglotBindings().putMember(name, obj);
+        }
+
+        @Override
+        public void quit() {
+            // the context is closed by the benchmark's tear down
+        }
+
+        @Override
+        public Services.Computation cast(Object value, Services.Computation prototype) {
+            return ((Value) value).as(Services.Computation.class);
+        }
+
+        @Override
+        public Services.BatchComputation cast(Object value, Services.BatchComputation prototype) {
+            return ((Value) value).as(Services.BatchComputation.class);
+        }
+    }
+}
@@ -0,0 +1,178 @@
+#*
+ * Copyright (c) 2017 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or data
+ * (collectively the "Software"), free of charge and under any and all copyright
+ * rights in the Software, and any and all patent rights owned or freely
+ * licensable by each licensor hereunder covering either (i) the unmodified
+ * Software as contributed to or provided by such licensor, or (ii) the Larger
+ * Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ *
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ *
+ * The above copyright notice and either this complete permission notice or at a
+ * minimum a reference to the UPL must be included in all copies or substantial
+ * portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *#
+
+package ${package};
+
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/** Admission control for work sent to background threads. At most
+ * {@code maxQueued} jobs may wait or run at once, each route has its own
+ * concurrency limit and jobs estimated as expensive may take only
+ * {@code maxExpensive} of the slots - a burst of huge factorials thus
+ * cannot starve the cheap requests. Refused requests are meant to be
+ * answered by 503 with {@link #retryAfter()} seconds.
+ */
+public final class Admission {
+    private final int maxQueued;
+    private final int routeLimit;
+    private final int maxExpensive;
+    private final long expensiveCost;
+    private final int retryAfter;
+    private final Map<String, Integer> limits = new HashMap<>();
+    private final Map<String, int[]> running = new HashMap<>();
+    private int queued;
+    private int expensive;
+    private long rejected;
+
+    public Admission(int maxQueued, int routeLimit, int maxExpensive, long expensiveCost, int retryAfter) {
+        this.maxQueued = maxQueued;
+        this.routeLimit = routeLimit;
+        this.maxExpensive = maxExpensive;
+        this.expensiveCost = expensiveCost;
+        this.retryAfter = retryAfter;
+    }
+
+    /** Limits are read from ADMISSION_QUEUE (1024 jobs by default),
+     * ADMISSION_EXPENSIVE_N (jobs for larger N are expensive, 20000),
+     * ADMISSION_EXPENSIVE (a quarter of the queue), ADMISSION_RETRY_AFTER
+     * (1 second) and ADMISSION_LIMIT_JAVA, ADMISSION_LIMIT_JS, ... for
+     * the routes.
+     */
+    static Admission fromEnvironment() {
+        final int queue = intEnv("ADMISSION_QUEUE", 1024);
+        final int expensiveN = intEnv("ADMISSION_EXPENSIVE_N", 20000);
+        Admission admission = new Admission(
+            queue, queue, intEnv("ADMISSION_EXPENSIVE", Math.max(1, queue / 4)),
+            cost(expensiveN), intEnv("ADMISSION_RETRY_AFTER", 1)
+        );
+        for (String route : new String[] { "java", "js", "ruby", "r" }) {
+            String limit = System.getenv("ADMISSION_LIMIT_" + route.toUpperCase(Locale.ENGLISH));
+            if (limit != null) {
+                admission.limit(route, Integer.parseInt(limit));
+            }
+        }
+        return admission;
+    }
+
+    private static int intEnv(String name, int defaultValue) {
+        String value = System.getenv(name);
+        return value == null ? defaultValue : Integer.parseInt(value);
+    }
+
+    /** Allows at most {@code max} concurrent jobs of the route. */
+    public synchronized Admission limit(String route, int max) {
+        limits.put(route, max);
+        return this;
+    }
+
+    /** Estimated cost of factorial of n - about the number of bits of
+     * the result, i.e. {@code n * log2(n)}.
+     */
+    public static long cost(int n) {
+        if (n < 2) {
+            return 1;
+        }
+        return (long) n * (32 - Integer.numberOfLeadingZeros(n));
+    }
+
+    /** Admits a job computing N for the route.
+     * @return permit to release once the job is over or {@code null} when
+     *   the job has to be refused
+     */
+    public synchronized Permit tryAcquire(String route, int n) {
+        final boolean isExpensive = cost(n) >= expensiveCost;
+        final int[] count = running.computeIfAbsent(route, (k) -> new int[1]);
+        if (queued >= maxQueued || count[0] >= limits.getOrDefault(route, routeLimit) || (isExpensive && expensive >= maxExpensive)) {
+            rejected++;
+            return null;
+        }
+        queued++;
+        count[0]++;
+        if (isExpensive) {
+            expensive++;
+        }
+        return new Permit(count, isExpensive);
+    }
+
+    private synchronized void release(int[] count, boolean isExpensive) {
+        queued--;
+        count[0]--;
+        if (isExpensive) {
+            expensive--;
+        }
+    }
+
+    /** Seconds a refused client should wait before retrying. */
+    public int retryAfter() {
+        return retryAfter;
+    }
+
+    public synchronized int queued() {
+        return queued;
+    }
+
+    public synchronized long rejected() {
+        return rejected;
+    }
+
+    /** Slot taken by an admitted job. Releasing it more than once is harmless. */
+    public final class Permit {
+        private final int[] count;
+        private final boolean isExpensive;
+        private boolean released;
+
+        Permit(int[] count, boolean isExpensive) {
+            this.count = count;
+            this.isExpensive = isExpensive;
+        }
+
+        public void release() {
+            synchronized (Admission.this) {
+                if (released) {
+                    return;
+                }
+                released = true;
+            }
+            Admission.this.release(count, isExpensive);
+        }
+    }
+}
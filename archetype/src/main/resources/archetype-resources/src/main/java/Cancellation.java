@@ -0,0 +1,92 @@
+#*
+ * Copyright (c) 2017 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or data
+ * (collectively the "Software"), free of charge and under any and all copyright
+ * rights in the Software, and any and all patent rights owned or freely
+ * licensable by each licensor hereunder covering either (i) the unmodified
+ * Software as contributed to or provided by such licensor, or (ii) the Larger
+ * Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ *
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ *
+ * The above copyright notice and either this complete permission notice or at a
+ * minimum a reference to the UPL must be included in all copies or substantial
+ * portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *#
+
+package ${package};
+
+import java.util.concurrent.CancellationException;
+
+/** Tells a computation its result is no longer needed - either the client
+ * has gone or the deadline of the request has passed. Long running loops
+ * call {@link #check()} now and then; the token is safe to share among
+ * threads.
+ */
+public final class Cancellation {
+    private final long deadline;
+    private volatile boolean cancelled;
+
+    private Cancellation(long deadline) {
+        this.deadline = deadline;
+    }
+
+    /** Token cancelled only by {@link #cancel()}. */
+    public static Cancellation never() {
+        return new Cancellation(0);
+    }
+
+    /** Token that also expires {@code millis} from now, {@code 0} means never. */
+    public static Cancellation after(long millis) {
+        if (millis <= 0) {
+            return never();
+        }
+        final long deadline = System.nanoTime() + millis * 1000000;
+        return new Cancellation(deadline == 0 ? 1 : deadline);
+    }
+
+    public void cancel() {
+        cancelled = true;
+    }
+
+    /** Has the token been cancelled or has its deadline passed? */
+    public boolean isCancelled() {
+        return cancelled || isExpired();
+    }
+
+    /** The deadline has passed. */
+    public boolean isExpired() {
+        return deadline != 0 && System.nanoTime() - deadline > 0;
+    }
+
+    /** @throws CancellationException when the work should stop */
+    public void check() {
+        if (isCancelled()) {
+            throw new CancellationException(isExpired() ? "Deadline exceeded" : "Cancelled");
+        }
+    }
+}
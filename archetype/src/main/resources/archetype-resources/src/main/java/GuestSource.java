@@ -0,0 +1,122 @@
+#*
+ * Copyright (c) 2017 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or data
+ * (collectively the "Software"), free of charge and under any and all copyright
+ * rights in the Software, and any and all patent rights owned or freely
+ * licensable by each licensor hereunder covering either (i) the unmodified
+ * Software as contributed to or provided by such licensor, or (ii) the Larger
+ * Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ *
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ *
+ * The above copyright notice and either this complete permission notice or at a
+ * minimum a reference to the UPL must be included in all copies or substantial
+ * portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *#
+
+package ${package};
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/** Guest language code used by the algorithms. Each source has a unique
+ * name, so it is evaluated once per context and, when the contexts share
+ * an engine, parsed and compiled once for all of them.
+ */
+public final class GuestSource {
+    private static final List<GuestSource> ALL = new ArrayList<>();
+#if ($algorithmJS.equals("true"))
+
+    public static final GuestSource JS_FACTORIAL = new GuestSource("factorial.js", "text/javascript",
+        "(function fac(n) {\n" +
+        "    if (n <= 1) return 1;\n" +
+        "    return n * fac(n - 1);\n" +
+        "})\n"
+    );
+#end
+#if ($algorithmRuby.equals("true"))
+
+    public static final GuestSource RUBY_FACTORIAL = new GuestSource("factorial.rb", "application/x-ruby",
+        "def fac(n)\n" +
+        "  f = (1..n).reduce(1, :*)\n" +
+        "  f.to_s\n" +
+        "end\n" +
+        "method(:fac)"
+    );
+
+    /** Keeps the running product in Ruby, so the batch costs about one {@code to!}. */
+    public static final GuestSource RUBY_FACTORIALS = new GuestSource("factorials.rb", "application/x-ruby",
+        "def facs(from, to, each)\n" +
+        "  f = (1..from).reduce(1, :*)\n" +
+        "  each.call(from, f.to_s)\n" +
+        "  ((from + 1)..to).each do |n|\n" +
+        "    f *= n\n" +
+        "    each.call(n, f.to_s)\n" +
+        "  end\n" +
+        "end\n" +
+        "method(:facs)"
+    );
+#end
+#if ($algorithmR.equals("true"))
+
+    public static final GuestSource R_FACTORIAL = new GuestSource("factorial.R", "text/x-r", "factorial");
+#end
+
+    private final String name;
+    private final String mimeType;
+    private final String code;
+
+    private GuestSource(String name, String mimeType, String code) {
+        this.name = name;
+        this.mimeType = mimeType;
+        this.code = code;
+        ALL.add(this);
+    }
+
+    public String name() {
+        return name;
+    }
+
+    public String mimeType() {
+        return mimeType;
+    }
+
+    public String code() {
+        return code;
+    }
+
+    /** All the sources of the selected languages. */
+    public static List<GuestSource> all() {
+        return Collections.unmodifiableList(ALL);
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+}
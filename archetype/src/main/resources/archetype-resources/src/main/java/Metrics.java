@@ -0,0 +1,204 @@
+#*
+ * Copyright (c) 2017 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or data
+ * (collectively the "Software"), free of charge and under any and all copyright
+ * rights in the Software, and any and all patent rights owned or freely
+ * licensable by each licensor hereunder covering either (i) the unmodified
+ * Software as contributed to or provided by such licensor, or (ii) the Larger
+ * Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ *
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ *
+ * The above copyright notice and either this complete permission notice or at a
+ * minimum a reference to the UPL must be included in all copies or substantial
+ * portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *#
+
+package ${package};
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.LongSupplier;
+
+/** Request metrics exposed in Prometheus text format. Latencies are kept
+ * per language and phase (queue, compute, serialize) in log-linear
+ * histograms - recording a value is a few atomic increments and never
+ * allocates, so it can be called from any thread on every request.
+ */
+public final class Metrics {
+    private static final double[] QUANTILES = { 0.5, 0.9, 0.99, 0.999 };
+
+    private final Map<String, Histogram> histograms = new LinkedHashMap<>();
+    private final List<Sample> samples = new ArrayList<>();
+
+    /** Histogram for given language and phase, created on first request.
+     * Look it up once and keep the reference to avoid the map lookup.
+     */
+    public synchronized Histogram histogram(String language, String phase) {
+        return histograms.computeIfAbsent(language + "\u0000" + phase, (k) -> new Histogram(language, phase));
+    }
+
+    /** Registers a counter or gauge whose value is read on each scrape. */
+    public synchronized void register(String name, String type, String help, LongSupplier value) {
+        samples.add(new Sample(name, type, help, value));
+    }
+
+    public Gauge gauge(String name, String help) {
+        Gauge gauge = new Gauge();
+        register(name, "gauge", help, gauge);
+        return gauge;
+    }
+
+    public synchronized String toPrometheus() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("# HELP polyglot_latency_seconds Time spent in each phase of a request per language.\n");
+        sb.append("# TYPE polyglot_latency_seconds summary\n");
+        for (Histogram h : histograms.values()) {
+            String labels = "language=\"" + h.language + "\",phase=\"" + h.phase + "\"";
+            for (double q : QUANTILES) {
+                sb.append("polyglot_latency_seconds{").append(labels).append(",quantile=\"").append(q).append("\"} ");
+                sb.append(seconds(h.valueAt(q))).append('\n');
+            }
+            sb.append("polyglot_latency_seconds_sum{").append(labels).append("} ").append(seconds(h.sum())).append('\n');
+            sb.append("polyglot_latency_seconds_count{").append(labels).append("} ").append(h.count()).append('\n');
+        }
+        for (Sample s : samples) {
+            sb.append("# HELP ").append(s.name).append(' ').append(s.help).append('\n');
+            sb.append("# TYPE ").append(s.name).append(' ').append(s.type).append('\n');
+            sb.append(s.name).append(' ').append(s.value.getAsLong()).append('\n');
+        }
+        return sb.toString();
+    }
+
+    private static String seconds(long nanos) {
+        return String.format(Locale.ENGLISH, "%.9f", nanos / 1e9);
+    }
+
+    /** Latency histogram with about 1.5% precision. Values up to 128 are
+     * counted exactly, larger ones fall into one of 64 equally wide
+     * buckets between two consecutive powers of two.
+     */
+    public static final class Histogram {
+        private static final int SUB_BITS = 7;
+        private static final int HALF = 1 << (SUB_BITS - 1);
+        /** about 73 minutes, longer values are recorded as this one */
+        private static final long MAX_VALUE = (1L << 42) - 1;
+
+        final String language;
+        final String phase;
+        private final AtomicLongArray counts = new AtomicLongArray(index(MAX_VALUE) + 1);
+        private final AtomicLong count = new AtomicLong();
+        private final AtomicLong sum = new AtomicLong();
+
+        Histogram(String language, String phase) {
+            this.language = language;
+            this.phase = phase;
+        }
+
+        public void record(long nanos) {
+            long value = Math.max(0, Math.min(nanos, MAX_VALUE));
+            counts.incrementAndGet(index(value));
+            count.incrementAndGet();
+            sum.addAndGet(value);
+        }
+
+        public long count() {
+            return count.get();
+        }
+
+        public long sum() {
+            return sum.get();
+        }
+
+        /** @return the highest value of the bucket containing the quantile */
+        public long valueAt(double quantile) {
+            long total = 0;
+            for (int i = 0; i < counts.length(); i++) {
+                total += counts.get(i);
+            }
+            long rank = (long) Math.ceil(quantile * total);
+            long seen = 0;
+            for (int i = 0; i < counts.length(); i++) {
+                seen += counts.get(i);
+                if (seen >= rank && seen > 0) {
+                    return highestValue(i);
+                }
+            }
+            return 0;
+        }
+
+        static int index(long value) {
+            if (value < 2 * HALF) {
+                return (int) value;
+            }
+            int shift = 63 - Long.numberOfLeadingZeros(value) - (SUB_BITS - 1);
+            return shift * HALF + (int) (value >>> shift);
+        }
+
+        static long highestValue(int index) {
+            if (index < 2 * HALF) {
+                return index;
+            }
+            int shift = index / HALF - 1;
+            long sub = index % HALF + HALF;
+            return ((sub + 1) << shift) - 1;
+        }
+    }
+
+    /** Value that goes up and down, like number of jobs in flight. */
+    public static final class Gauge implements LongSupplier {
+        private final AtomicLong value = new AtomicLong();
+
+        public void add(long delta) {
+            value.addAndGet(delta);
+        }
+
+        @Override
+        public long getAsLong() {
+            return value.get();
+        }
+    }
+
+    private static final class Sample {
+        final String name;
+        final String type;
+        final String help;
+        final LongSupplier value;
+
+        Sample(String name, String type, String help, LongSupplier value) {
+            this.name = name;
+            this.type = type;
+            this.help = help;
+            this.value = value;
+        }
+    }
+}
@@ -0,0 +1,552 @@
+#*
+ * Copyright (c) 2017 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or data
+ * (collectively the "Software"), free of charge and under any and all copyright
+ * rights in the Software, and any and all patent rights owned or freely
+ * licensable by each licensor hereunder covering either (i) the unmodified
+ * Software as contributed to or provided by such licensor, or (ii) the Larger
+ * Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ *
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ *
+ * The above copyright notice and either this complete permission notice or at a
+ * minimum a reference to the UPL must be included in all copies or substantial
+ * portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *#
+
+package ${package};
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/** HTTP/1.1 server written in plain Java. A single selector thread accepts
+ * connections, parses requests and writes responses. Connections are kept
+ * alive and pipelined requests are answered in the order they arrived,
+ * even if their responses are produced by different threads.
+ */
+final class NioServer implements Runnable {
+    private static final int MAX_REQUEST = 64 * 1024;
+    /** Interim response written to find out whether a client is still there. */
+    private static final byte[] PROCESSING = "HTTP/1.1 102 Processing\r\n\r\n".getBytes(StandardCharsets.ISO_8859_1);
+    private static final long PROBE_MILLIS = 100;
+
+    private final Services.Handler handler;
+    private final Selector selector;
+    private final ServerSocketChannel channel;
+    private final Queue<Connection> ready = new ConcurrentLinkedQueue<>();
+    /** Connections whose client has stopped sending, used by selector thread only. */
+    private final Set<Connection> probing = new HashSet<>();
+
+    NioServer(int port, Services.Handler handler) throws IOException {
+        this.handler = handler;
+        this.selector = Selector.open();
+        this.channel = ServerSocketChannel.open();
+        channel.bind(new InetSocketAddress(port));
+        channel.configureBlocking(false);
+        channel.register(selector, SelectionKey.OP_ACCEPT);
+    }
+
+    /** The port the server listens on. */
+    int port() throws IOException {
+        return ((InetSocketAddress) channel.getLocalAddress()).getPort();
+    }
+
+    void start() {
+        Thread thread = new Thread(this, "nio-http-server");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /** Computes in the common fork/join pool instead of node.js worker threads. */
+    static Services.Worker worker() {
+        return new Services.Worker() {
+            @Override
+            public <T> void submit(Supplier<T> background, Consumer<T> finish) {
+                CompletableFuture.supplyAsync(background, ForkJoinPool.commonPool()).whenComplete((result, ex) -> {
+                    if (ex != null) {
+                        ex.printStackTrace();
+                        finish.accept(null);
+                    } else {
+                        finish.accept(result);
+                    }
+                });
+            }
+        };
+    }
+
+    /** Ends a response of this server by the bytes and a new line. The
+     * buffer is written to the socket as it is, without copying.
+     * @return {@code false} when the response belongs to another server
+     */
+    static boolean endLine(Services.ServerResponse out, ByteBuffer body) {
+        if (!(out instanceof Exchange)) {
+            return false;
+        }
+        ((Exchange) out).endLine(body);
+        return true;
+    }
+
+    @Override
+    public void run() {
+        while (channel.isOpen()) {
+            try {
+                selector.select(probing.isEmpty() ? 0 : PROBE_MILLIS);
+            } catch (IOException ex) {
+                ex.printStackTrace();
+                return;
+            }
+            Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+            while (it.hasNext()) {
+                SelectionKey key = it.next();
+                it.remove();
+                try {
+                    if (key.isValid() && key.isAcceptable()) {
+                        accept();
+                    }
+                    if (key.isValid() && key.isReadable()) {
+                        ((Connection) key.attachment()).read();
+                    }
+                    if (key.isValid() && key.isWritable()) {
+                        ((Connection) key.attachment()).flush();
+                    }
+                } catch (IOException ex) {
+                    if (key.attachment() instanceof Connection) {
+                        ((Connection) key.attachment()).close();
+                    }
+                } catch (RuntimeException ex) {
+                    // one broken connection must not stop the server
+                    ex.printStackTrace();
+                    if (key.attachment() instanceof Connection) {
+                        ((Connection) key.attachment()).close();
+                    }
+                }
+            }
+            for (;;) {
+                Connection c = ready.poll();
+                if (c == null) {
+                    break;
+                }
+                try {
+                    c.flush();
+                } catch (IOException | RuntimeException ex) {
+                    c.close();
+                }
+            }
+            final long now = System.nanoTime();
+            for (Connection c : new ArrayList<>(probing)) {
+                try {
+                    c.probe(now);
+                } catch (IOException | RuntimeException ex) {
+                    c.close();
+                }
+            }
+        }
+    }
+
+    private void accept() throws IOException {
+        SocketChannel socket = channel.accept();
+        if (socket == null) {
+            return;
+        }
+        socket.configureBlocking(false);
+        socket.socket().setTcpNoDelay(true);
+        Connection c = new Connection(socket);
+        c.key = socket.register(selector, SelectionKey.OP_READ, c);
+    }
+
+    private final class Connection {
+        private final SocketChannel socket;
+        private final ArrayDeque<Exchange> exchanges = new ArrayDeque<>();
+        private SelectionKey key;
+        private ByteBuffer in = ByteBuffer.allocate(8192);
+        private ByteBuffer out;
+        private boolean lastRequest;
+        private long probed;
+
+        Connection(SocketChannel socket) {
+            this.socket = socket;
+        }
+
+        void read() throws IOException {
+            if (socket.read(in) == -1) {
+                // the client may have only shut its output down and still wait
+                // for responses, or it may be gone - only a write tells
+                lastRequest = true;
+                key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+                probed = System.nanoTime() - PROBE_MILLIS * 1000000;
+                probing.add(this);
+            } else {
+                parse();
+            }
+            flush();
+        }
+
+        private void parse() {
+            in.flip();
+            while (!lastRequest) {
+                final int start = in.position();
+                final int end = headerEnd(start);
+                if (end == -1) {
+                    break;
+                }
+                String head = new String(in.array(), start, end - start, StandardCharsets.ISO_8859_1);
+                String[] lines = head.split("\r\n");
+                String[] requestLine = lines[0].split(" ");
+                if (requestLine.length != 3) {
+                    respondAndClose("400 Bad Request");
+                    return;
+                }
+                final boolean http11 = !"HTTP/1.0".equals(requestLine[2]);
+                boolean keepAlive = http11;
+                int contentLength = 0;
+                for (int i = 1; i < lines.length; i++) {
+                    int colon = lines[i].indexOf(':');
+                    if (colon == -1) {
+                        continue;
+                    }
+                    String name = lines[i].substring(0, colon).trim().toLowerCase(Locale.ENGLISH);
+                    String value = lines[i].substring(colon + 1).trim().toLowerCase(Locale.ENGLISH);
+                    if (name.equals("connection")) {
+                        keepAlive = http11 && !value.equals("close");
+                    } else if (name.equals("content-length")) {
+                        contentLength = parseLength(value);
+                        if (contentLength < 0) {
+                            respondAndClose("400 Bad Request");
+                            return;
+                        }
+                    }
+                }
+                if (end + contentLength > in.limit()) {
+                    if (end + contentLength - start > MAX_REQUEST) {
+                        respondAndClose("413 Payload Too Large");
+                        return;
+                    }
+                    in.position(start);
+                    break;
+                }
+                in.position(end + contentLength);
+                Exchange exchange = new Exchange(this, requestLine[1], keepAlive, http11);
+                exchanges.add(exchange);
+                lastRequest = !keepAlive;
+                try {
+                    handler.call(exchange, exchange);
+                } catch (RuntimeException ex) {
+                    ex.printStackTrace();
+                    exchange.respond("500 Internal Server Error", ex.toString() + "\n");
+                }
+            }
+            in.compact();
+            if (!in.hasRemaining()) {
+                if (in.capacity() >= MAX_REQUEST) {
+                    respondAndClose("431 Request Header Fields Too Large");
+                    return;
+                }
+                ByteBuffer bigger = ByteBuffer.allocate(in.capacity() * 2);
+                in.flip();
+                bigger.put(in);
+                in = bigger;
+            }
+        }
+
+        /** @return the length or {@code -1} if it isn't a non-negative number */
+        private int parseLength(String value) {
+            try {
+                return Math.max(Integer.parseInt(value), -1);
+            } catch (NumberFormatException ex) {
+                return -1;
+            }
+        }
+
+        private int headerEnd(int from) {
+            byte[] arr = in.array();
+            for (int i = from; i + 3 < in.limit(); i++) {
+                if (arr[i] == '\r' && arr[i + 1] == '\n' && arr[i + 2] == '\r' && arr[i + 3] == '\n') {
+                    return i + 4;
+                }
+            }
+            return -1;
+        }
+
+        private void respondAndClose(String status) {
+            Exchange exchange = new Exchange(this, null, false, false);
+            exchanges.add(exchange);
+            lastRequest = true;
+            in.clear();
+            exchange.respond(status, status + "\n");
+        }
+
+        /** Writes {@link #PROCESSING} while the client waits for a response
+         * on a half-closed connection. When the client is gone, the second
+         * write fails and the computation of the response is cancelled.
+         * HTTP/1.0 clients cannot receive interim responses, they are
+         * considered gone.
+         */
+        void probe(long now) throws IOException {
+            final Exchange head = exchanges.peek();
+            if (head == null || !key.isValid()) {
+                probing.remove(this);
+                return;
+            }
+            if (out != null || head.finished || !head.chunks.isEmpty() || now - probed < PROBE_MILLIS * 1000000) {
+                return;
+            }
+            if (!head.chunked) {
+                close();
+                return;
+            }
+            probed = now;
+            out = ByteBuffer.wrap(PROCESSING);
+            flush();
+        }
+
+        /** Writes responses in the order of their requests. */
+        void flush() throws IOException {
+            if (!key.isValid()) {
+                return;
+            }
+            for (;;) {
+                if (out == null) {
+                    Exchange head = exchanges.peek();
+                    if (head == null) {
+                        break;
+                    }
+                    boolean finished = head.finished;
+                    out = head.chunks.poll();
+                    if (out == null) {
+                        if (!finished) {
+                            break;
+                        }
+                        exchanges.poll();
+                        continue;
+                    }
+                }
+                socket.write(out);
+                if (out.hasRemaining()) {
+                    key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+                    return;
+                }
+                out = null;
+            }
+            key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+            if (lastRequest && exchanges.isEmpty()) {
+                close();
+            }
+        }
+
+        void close() {
+            probing.remove(this);
+            for (Exchange exchange : exchanges) {
+                exchange.closed();
+            }
+            key.cancel();
+            try {
+                socket.close();
+            } catch (IOException ex) {
+                // already closed
+            }
+        }
+    }
+
+    /** Single request and its response. The response may be produced by
+     * any thread, the selector thread picks its chunks from a queue.
+     */
+    private final class Exchange implements Services.IncommingMessage, Services.ServerResponse {
+        private static final String CHUNKED = "Transfer-Encoding: chunked\r\n";
+
+        private final Connection connection;
+        private final String url;
+        private final boolean keepAlive;
+        private final boolean chunked;
+        final Queue<ByteBuffer> chunks = new ConcurrentLinkedQueue<>();
+        volatile boolean finished;
+        private boolean headerSent;
+        private String status = "200 OK";
+        private final StringBuilder headers = new StringBuilder();
+        private List<Runnable> closeListeners = new ArrayList<>();
+
+        Exchange(Connection connection, String url, boolean keepAlive, boolean chunked) {
+            this.connection = connection;
+            this.url = url;
+            this.keepAlive = keepAlive;
+            this.chunked = chunked;
+        }
+
+        @Override
+        public String url() {
+            return url;
+        }
+
+        @Override
+        public void setHeader(String name, String value) {
+            headers.append(name).append(": ").append(value).append("\r\n");
+        }
+
+        @Override
+        public void writeHead(int code, String message) {
+            status = code + " " + message;
+        }
+
+        /** Listeners added after the exchange is over run immediately. */
+        @Override
+        public void on(String event, Runnable listener) {
+            if (!"close".equals(event)) {
+                return;
+            }
+            synchronized (this) {
+                if (closeListeners != null) {
+                    closeListeners.add(listener);
+                    return;
+                }
+            }
+            listener.run();
+        }
+
+        @Override
+        public boolean writableFinished() {
+            return finished;
+        }
+
+        @Override
+        public void write(String chunk) {
+            if (chunk.isEmpty()) {
+                return;
+            }
+            byte[] data = chunk.getBytes(StandardCharsets.UTF_8);
+            StringBuilder head = new StringBuilder();
+            if (!headerSent) {
+                headerSent = true;
+                header(head, status, chunked ? CHUNKED : "");
+            }
+            if (chunked) {
+                head.append(Integer.toHexString(data.length)).append("\r\n");
+            }
+            send(head, data, chunked ? "\r\n" : "");
+        }
+
+        @Override
+        public void end() {
+            if (!headerSent) {
+                end("");
+                return;
+            }
+            if (chunked) {
+                send(new StringBuilder("0\r\n\r\n"), new byte[0], "");
+            }
+            finish();
+        }
+
+        @Override
+        public void end(String text) {
+            if (headerSent) {
+                write(text);
+                end();
+            } else {
+                respond(status, text);
+            }
+        }
+
+        void endLine(ByteBuffer body) {
+            if (headerSent) {
+                write(StandardCharsets.UTF_8.decode(body).toString());
+                end("\n");
+                return;
+            }
+            StringBuilder head = new StringBuilder();
+            headerSent = true;
+            header(head, status, "Content-Length: " + (body.remaining() + 1) + "\r\n");
+            chunks.add(ByteBuffer.wrap(head.toString().getBytes(StandardCharsets.ISO_8859_1)));
+            chunks.add(body);
+            send("", new byte[0], "\n");
+            finish();
+        }
+
+        void respond(String status, String text) {
+            byte[] body = text.getBytes(StandardCharsets.UTF_8);
+            StringBuilder head = new StringBuilder();
+            headerSent = true;
+            header(head, status, "Content-Length: " + body.length + "\r\n");
+            send(head, body, "");
+            finish();
+        }
+
+        private void header(StringBuilder head, String status, String length) {
+            head.append("HTTP/1.1 ").append(status).append("\r\n")
+                .append("Content-Type: text/plain; charset=UTF-8\r\n")
+                .append(length)
+                .append(headers)
+                .append(keepAlive ? "" : "Connection: close\r\n")
+                .append("\r\n");
+        }
+
+        private void send(CharSequence head, byte[] data, String tail) {
+            byte[] prefix = head.toString().getBytes(StandardCharsets.ISO_8859_1);
+            ByteBuffer buffer = ByteBuffer.allocate(prefix.length + data.length + tail.length());
+            buffer.put(prefix).put(data).put(tail.getBytes(StandardCharsets.ISO_8859_1)).flip();
+            chunks.add(buffer);
+            ready.add(connection);
+            selector.wakeup();
+        }
+
+        private void finish() {
+            finished = true;
+            ready.add(connection);
+            selector.wakeup();
+            closed();
+        }
+
+        /** Calls the close listeners once. */
+        void closed() {
+            final List<Runnable> listeners;
+            synchronized (this) {
+                listeners = closeListeners;
+                closeListeners = null;
+            }
+            if (listeners != null) {
+                listeners.forEach(Runnable::run);
+            }
+        }
+    }
+}
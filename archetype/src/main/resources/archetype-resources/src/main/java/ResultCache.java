@@ -0,0 +1,257 @@
+#*
+ * Copyright (c) 2017 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or data
+ * (collectively the "Software"), free of charge and under any and all copyright
+ * rights in the Software, and any and all patent rights owned or freely
+ * licensable by each licensor hereunder covering either (i) the unmodified
+ * Software as contributed to or provided by such licensor, or (ii) the Larger
+ * Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ *
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ *
+ * The above copyright notice and either this complete permission notice or at a
+ * minimum a reference to the UPL must be included in all copies or substantial
+ * portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *#
+
+package ${package};
+
+#if ($algorithmJava.equals("true"))
+import java.math.BigInteger;
+#end
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.IntFunction;
+
+/** Memory bounded cache of computed results keyed by language and input.
+ * Results are evicted in least recently used order once the estimated
+ * size of all of them exceeds the limit. The cache is shared by the
+ * node.js event loop thread as well as the worker threads - all access is
+ * synchronized, but computations run outside of the lock.
+ */
+public final class ResultCache {
+    private final long maxWeight;
+    private final LinkedHashMap<Key, Object> lru = new LinkedHashMap<>(64, 0.75f, true);
+    private final Map<String, TreeMap<Integer, Object>> byLanguage = new HashMap<>();
+    private long weight;
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    public ResultCache(long maxWeight) {
+        this.maxWeight = maxWeight;
+    }
+
+    public synchronized Object get(String language, int n) {
+        Object value = lru.get(new Key(language, n));
+        if (value != null) {
+            hits++;
+        } else {
+            misses++;
+        }
+        return value;
+    }
+
+    /** Finds the closest cached result for input lower than {@code n}.
+     * @return the entry or {@code null}
+     */
+    public synchronized Map.Entry<Integer, Object> lower(String language, int n) {
+        TreeMap<Integer, Object> results = byLanguage.get(language);
+        return results == null ? null : touch(language, results.lowerEntry(n));
+    }
+
+    /** Finds the closest cached result for input higher than {@code n}.
+     * @return the entry or {@code null}
+     */
+    public synchronized Map.Entry<Integer, Object> higher(String language, int n) {
+        TreeMap<Integer, Object> results = byLanguage.get(language);
+        return results == null ? null : touch(language, results.higherEntry(n));
+    }
+
+    private Map.Entry<Integer, Object> touch(String language, Map.Entry<Integer, Object> entry) {
+        if (entry != null) {
+            lru.get(new Key(language, entry.getKey()));
+        }
+        return entry;
+    }
+
+    public synchronized void put(String language, int n, Object value) {
+        final long size = weightOf(value);
+        if (size > maxWeight) {
+            return;
+        }
+        Object previous = lru.put(new Key(language, n), value);
+        if (previous != null) {
+            weight -= weightOf(previous);
+        }
+        byLanguage.computeIfAbsent(language, (k) -> new TreeMap<>()).put(n, value);
+        weight += size;
+        Iterator<Map.Entry<Key, Object>> it = lru.entrySet().iterator();
+        while (weight > maxWeight && it.hasNext()) {
+            Map.Entry<Key, Object> eldest = it.next();
+            it.remove();
+            byLanguage.get(eldest.getKey().language).remove(eldest.getKey().n);
+            weight -= weightOf(eldest.getValue());
+            evictions++;
+        }
+    }
+
+    /** Returns cached result or computes it. Concurrent requests for the
+     * same missing value may compute it more than once.
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T computeIfAbsent(String language, int n, IntFunction<T> compute) {
+        Object value = get(language, n);
+        if (value != null) {
+            return (T) value;
+        }
+        T result = compute.apply(n);
+        if (result != null) {
+            put(language, n, result);
+        }
+        return result;
+    }
+
+    /** Caches single values computed by the delegate. Batches go to the
+     * delegate directly, caching every value of them would flush the cache.
+     */
+    public Services.Algorithms wrap(Services.Algorithms delegate) {
+        return new Services.Algorithms() {
+#if ($algorithmJava.equals("true"))
+            @Override
+            public BigInteger java(int n) {
+                // Services.factorial consults the cache itself
+                return delegate.java(n);
+            }
+
+            @Override
+            public void javaBatch(int from, int to, Services.BatchResult each) {
+                delegate.javaBatch(from, to, each);
+            }
+#end
+#if ($algorithmRuby.equals("true"))
+            @Override
+            public String ruby(int n) {
+                return computeIfAbsent("ruby", n, delegate::ruby);
+            }
+
+            @Override
+            public void rubyBatch(int from, int to, Services.BatchResult each) {
+                delegate.rubyBatch(from, to, each);
+            }
+#end
+#if ($algorithmJS.equals("true"))
+            @Override
+            public Number js(int n) {
+                return computeIfAbsent("js", n, delegate::js);
+            }
+
+            @Override
+            public void jsBatch(int from, int to, Services.BatchResult each) {
+                delegate.jsBatch(from, to, each);
+            }
+#end
+#if ($algorithmR.equals("true"))
+            @Override
+            public Number r(int n) {
+                return computeIfAbsent("r", n, delegate::r);
+            }
+
+            @Override
+            public void rBatch(int from, int to, Services.BatchResult each) {
+                delegate.rBatch(from, to, each);
+            }
+#end
+        };
+    }
+
+    public synchronized long hits() {
+        return hits;
+    }
+
+    public synchronized long misses() {
+        return misses;
+    }
+
+    public synchronized long evictions() {
+        return evictions;
+    }
+
+    public synchronized long weight() {
+        return weight;
+    }
+
+    public synchronized int size() {
+        return lru.size();
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "ResultCache{size=" + lru.size() + ", weight=" + weight + "/" + maxWeight
+            + ", hits=" + hits + ", misses=" + misses + ", evictions=" + evictions + "}";
+    }
+
+    /** Estimates memory occupied by a result. Big numbers weigh more. */
+    static long weightOf(Object value) {
+#if ($algorithmJava.equals("true"))
+        if (value instanceof BigInteger) {
+            return 48 + ((BigInteger) value).bitLength() / 8;
+        }
+#end
+        if (value instanceof String) {
+            return 40 + 2L * ((String) value).length();
+        }
+        return 32;
+    }
+
+    private static final class Key {
+        final String language;
+        final int n;
+
+        Key(String language, int n) {
+            this.language = language;
+            this.n = n;
+        }
+
+        @Override
+        public int hashCode() {
+            return language.hashCode() * 31 + n;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) obj;
+            return n == other.n && language.equals(other.language);
+        }
+    }
+}
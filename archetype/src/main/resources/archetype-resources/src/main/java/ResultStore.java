@@ -0,0 +1,220 @@
+#*
+ * Copyright (c) 2017 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or data
+ * (collectively the "Software"), free of charge and under any and all copyright
+ * rights in the Software, and any and all patent rights owned or freely
+ * licensable by each licensor hereunder covering either (i) the unmodified
+ * Software as contributed to or provided by such licensor, or (ii) the Larger
+ * Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ *
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ *
+ * The above copyright notice and either this complete permission notice or at a
+ * minimum a reference to the UPL must be included in all copies or substantial
+ * portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *#
+
+package ${package};
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+
+/** Results persisted across restarts. Their text is appended to
+ * {@code results.log}, {@code results.idx} records language, N, offset
+ * and length of each of them. On open the index is read into memory and
+ * whatever a crash left behind the last complete entry is cut off.
+ * Lookups return parts of the log mapped into memory - the bytes can be
+ * written to a socket without converting them to numbers and back. Each
+ * result is mapped on its first lookup, results never change once written.
+ */
+public final class ResultStore implements AutoCloseable {
+    /** 8 bytes of language, N, length and offset. */
+    static final int ENTRY = 8 + 4 + 4 + 8;
+
+    private final FileChannel log;
+    private final FileChannel index;
+    private final int minN;
+    private final Map<Key, Slot> slots = new HashMap<>();
+    private long end;
+    private long hits;
+
+    private ResultStore(FileChannel log, FileChannel index, int minN) {
+        this.log = log;
+        this.index = index;
+        this.minN = minN;
+    }
+
+    /** Opens or creates the store in a directory.
+     * @param minN smaller results are not worth storing
+     */
+    public static ResultStore open(Path dir, int minN) throws IOException {
+        Files.createDirectories(dir);
+        FileChannel log = FileChannel.open(dir.resolve("results.log"), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        FileChannel index = FileChannel.open(dir.resolve("results.idx"), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        ResultStore store = new ResultStore(log, index, minN);
+        store.load();
+        return store;
+    }
+
+    /** The directory is specified by RESULT_STORE variable, results of N
+     * lower than RESULT_STORE_ABOVE (1000 by default) aren't stored.
+     * @return {@code null} when the store isn't configured
+     */
+    static ResultStore fromEnvironment() throws IOException {
+        final String dir = System.getenv("RESULT_STORE");
+        if (dir == null || dir.isEmpty()) {
+            return null;
+        }
+        final String above = System.getenv("RESULT_STORE_ABOVE");
+        return open(Paths.get(dir), above == null ? 1000 : Integer.parseInt(above));
+    }
+
+    private void load() throws IOException {
+        final long logSize = log.size();
+        final long entries = index.size() / ENTRY;
+        if (entries > 0) {
+            ByteBuffer buffer = index.map(FileChannel.MapMode.READ_ONLY, 0, entries * ENTRY);
+            byte[] language = new byte[8];
+            for (long i = 0; i < entries; i++) {
+                buffer.get(language);
+                final int n = buffer.getInt();
+                final int length = buffer.getInt();
+                final long offset = buffer.getLong();
+                if (offset + length > logSize) {
+                    // the log wasn't written completely, ignore the rest
+                    break;
+                }
+                slots.put(new Key(new String(language, StandardCharsets.US_ASCII).trim(), n), new Slot(offset, length));
+                end = Math.max(end, offset + length);
+            }
+        }
+        index.truncate(slots.size() * (long) ENTRY);
+        log.truncate(end);
+    }
+
+    /** Finds the stored text of the result.
+     * @return read-only buffer with the bytes or {@code null}
+     */
+    public synchronized ByteBuffer get(String language, int n) throws IOException {
+        final Slot slot = slots.get(new Key(language, n));
+        if (slot == null) {
+            return null;
+        }
+        if (slot.mapped == null) {
+            slot.mapped = log.map(FileChannel.MapMode.READ_ONLY, slot.offset, slot.length);
+        }
+        hits++;
+        return slot.mapped.duplicate();
+    }
+
+    /** Appends text of the result unless it is already stored or too small. */
+    public synchronized void put(String language, int n, Object value) throws IOException {
+        final Key key = new Key(language, n);
+        if (n < minN || slots.containsKey(key)) {
+            return;
+        }
+        final byte[] name = language.getBytes(StandardCharsets.US_ASCII);
+        if (name.length > 8) {
+            throw new IllegalArgumentException("Language name too long: " + language);
+        }
+        final byte[] text = value.toString().getBytes(StandardCharsets.UTF_8);
+        writeFully(log, ByteBuffer.wrap(text), end);
+        ByteBuffer entry = ByteBuffer.allocate(ENTRY);
+        entry.put(name).position(8);
+        entry.putInt(n).putInt(text.length).putLong(end).flip();
+        writeFully(index, entry, slots.size() * (long) ENTRY);
+        slots.put(key, new Slot(end, text.length));
+        end += text.length;
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+    }
+
+    public synchronized long hits() {
+        return hits;
+    }
+
+    /** Size of the log in bytes. */
+    public synchronized long size() {
+        return end;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        log.force(true);
+        index.force(true);
+        log.close();
+        index.close();
+    }
+
+    private static final class Slot {
+        final long offset;
+        final int length;
+        MappedByteBuffer mapped;
+
+        Slot(long offset, int length) {
+            this.offset = offset;
+            this.length = length;
+        }
+    }
+
+    private static final class Key {
+        final String language;
+        final int n;
+
+        Key(String language, int n) {
+            this.language = language;
+            this.n = n;
+        }
+
+        @Override
+        public int hashCode() {
+            return language.hashCode() * 31 + n;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) obj;
+            return n == other.n && language.equals(other.language);
+        }
+    }
+}
@@ -0,0 +1,182 @@
+#*
+ * Copyright (c) 2017 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or data
+ * (collectively the "Software"), free of charge and under any and all copyright
+ * rights in the Software, and any and all patent rights owned or freely
+ * licensable by each licensor hereunder covering either (i) the unmodified
+ * Software as contributed to or provided by such licensor, or (ii) the Larger
+ * Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ *
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ *
+ * The above copyright notice and either this complete permission notice or at a
+ * minimum a reference to the UPL must be included in all copies or substantial
+ * portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *#
+
+package ${package};
+
+import java.util.Arrays;
+import ${package}.Services.IncommingMessage;
+import ${package}.Services.ServerResponse;
+
+/** Routing table built once and shared by all requests. Paths are stored
+ * in a trie, so a request URL is matched in a single pass over its
+ * characters and numeric path parameter is parsed in place without
+ * allocating substrings.
+ */
+public final class Router {
+    private final Node root = new Node();
+
+    /** Registers handler for the exact {@code path}. */
+    public Router exact(String path, Route route) {
+        node(path).exact = route;
+        return this;
+    }
+
+    /** Registers handler for {@code prefix} followed by a non-negative integer. */
+    public Router prefix(String prefix, Route route) {
+        node(prefix).prefix = route;
+        return this;
+    }
+
+    /** Registers handler for {@code prefix} followed by {@code from..to}. */
+    public Router range(String prefix, RangeRoute route) {
+        node(prefix).range = route;
+        return this;
+    }
+
+    /** Finds the route for given URL and calls it.
+     * @return {@code false} if no route matches the URL
+     */
+    public boolean dispatch(String url, IncommingMessage in, ServerResponse out) {
+        Node node = root;
+        Node prefixNode = null;
+        int paramStart = -1;
+        final int length = url.length();
+        for (int i = 0; node != null; i++) {
+            if (node.prefix != null || node.range != null) {
+                prefixNode = node;
+                paramStart = i;
+            }
+            if (i == length) {
+                if (node.exact != null) {
+                    node.exact.handle(-1, in, out);
+                    return true;
+                }
+                break;
+            }
+            node = node.child(url.charAt(i));
+        }
+        if (prefixNode == null) {
+            return false;
+        }
+        final int dots = url.indexOf("..", paramStart);
+        if (dots == -1) {
+            int param = parseParam(url, paramStart, length);
+            if (param < 0 || prefixNode.prefix == null) {
+                return false;
+            }
+            prefixNode.prefix.handle(param, in, out);
+            return true;
+        }
+        int from = parseParam(url, paramStart, dots);
+        int to = parseParam(url, dots + 2, length);
+        if (from < 0 || to < from || prefixNode.range == null) {
+            return false;
+        }
+        prefixNode.range.handle(from, to, in, out);
+        return true;
+    }
+
+    private static int parseParam(String url, int from, int length) {
+        if (from >= length) {
+            return -1;
+        }
+        int value = 0;
+        for (int i = from; i < length; i++) {
+            int digit = url.charAt(i) - '0';
+            if (digit < 0 || digit > 9 || value > (Integer.MAX_VALUE - digit) / 10) {
+                return -1;
+            }
+            value = value * 10 + digit;
+        }
+        return value;
+    }
+
+    private Node node(String path) {
+        Node node = root;
+        for (int i = 0; i < path.length(); i++) {
+            node = node.childOrCreate(path.charAt(i));
+        }
+        return node;
+    }
+
+    @FunctionalInterface
+    public interface Route {
+        /** Handles a request.
+         * @param param the integer following the prefix or {@code -1} for exact routes
+         */
+        void handle(int param, IncommingMessage in, ServerResponse out);
+    }
+
+    @FunctionalInterface
+    public interface RangeRoute {
+        /** Handles a request for all the integers {@code from..to}, {@code from <= to}. */
+        void handle(int from, int to, IncommingMessage in, ServerResponse out);
+    }
+
+    private static final class Node {
+        private char[] keys = new char[0];
+        private Node[] children = new Node[0];
+        Route exact;
+        Route prefix;
+        RangeRoute range;
+
+        Node child(char ch) {
+            for (int i = 0; i < keys.length; i++) {
+                if (keys[i] == ch) {
+                    return children[i];
+                }
+            }
+            return null;
+        }
+
+        Node childOrCreate(char ch) {
+            Node node = child(ch);
+            if (node == null) {
+                node = new Node();
+                final int at = keys.length;
+                keys = Arrays.copyOf(keys, at + 1);
+                children = Arrays.copyOf(children, at + 1);
+                keys[at] = ch;
+                children[at] = node;
+            }
+            return node;
+        }
+    }
+}
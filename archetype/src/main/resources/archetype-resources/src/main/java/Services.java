@@ -40,21 +40,54 @@
 
 package ${package};
 
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 #if ($algorithmJava.equals("true"))
 import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
 #end
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+#if (!$serverCode.equals("js"))
+import java.util.Queue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+#end
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.Consumer;
+import java.util.function.IntFunction;
 import java.util.function.Supplier;
 
 public class Services {
 #if (!$serverCode.equals("js"))
     private static final int PORT = 8080;
 #end
+    /** Largest number of values one batch request may ask for. */
+    static final int MAX_BATCH = 10000;
     private static Services INSTANCE;
 
     private final Worker worker;
     private final Require require;
     private final Global global;
+    private final ResultCache cache;
+    private final Admission admission = Admission.fromEnvironment();
+    private ResultStore store;
+    private final Map<String, Long> deadlines = new ConcurrentHashMap<>();
+    private final Metrics metrics = new Metrics();
+    private final Metrics.Gauge inFlight = metrics.gauge("polyglot_worker_jobs_in_flight", "Jobs submitted to worker threads and not finished yet.");
+#if (!$serverCode.equals("js"))
+    private final Router router = new Router();
+    private final Queue<Runnable> eventLoopTasks = new ConcurrentLinkedQueue<>();
+    private NioServer nioServer;
+#end
+    private volatile boolean ready;
 
     Algorithms algorithms;
 
@@ -62,14 +95,128 @@ public class Services {
         this.require = require;
         this.global = global;
         this.worker = worker;
+        this.cache = new ResultCache(cacheLimit());
+        metrics.register("polyglot_cache_hits_total", "counter", "Results found in the cache.", cache::hits);
+        metrics.register("polyglot_cache_misses_total", "counter", "Results not found in the cache.", cache::misses);
+        metrics.register("polyglot_cache_evictions_total", "counter", "Results evicted from the cache.", cache::evictions);
+        metrics.register("polyglot_cache_bytes", "gauge", "Estimated size of cached results.", cache::weight);
+        metrics.register("polyglot_admission_rejected_total", "counter", "Requests refused by admission control.", admission::rejected);
         INSTANCE = this;
     }
 
+    /** Size of result cache in megabytes is read from RESULT_CACHE_MB variable. */
+    private static long cacheLimit() {
+        String mb = System.getenv("RESULT_CACHE_MB");
+        return (mb == null ? 64 : Long.parseLong(mb)) * 1024 * 1024;
+    }
+
+    /** Number of warm-up calls is chosen when generating the project and
+     * can be overridden by POLYGLOT_WARMUP variable.
+     */
+    private static int warmUpCalls() {
+        String calls = System.getenv("POLYGLOT_WARMUP");
+        return calls == null ? ${warmup} : Integer.parseInt(calls);
+    }
+
+    /** Evaluates sources of all languages and calls each algorithm
+     * repeatedly, so Truffle compiles it before the first request.
+     */
+    private void warmUp(Algorithms raw) {
+        final int calls = warmUpCalls();
+        if (calls > 0) {
+#if ($algorithmJava.equals("true"))
+            warmUp("java", calls, (n) -> multiplyRange(1, n));
+#end
+#if ($algorithmJS.equals("true"))
+            warmUp("js", calls, (n) -> raw.js(n));
+#end
+#if ($algorithmRuby.equals("true"))
+            warmUp("ruby", calls, (n) -> raw.ruby(n));
+#end
+#if ($algorithmR.equals("true"))
+            warmUp("r", calls, (n) -> raw.r(n));
+#end
+        }
+        ready = true;
+    }
+
+    private static void warmUp(String language, int calls, IntFunction<Object> algorithm) {
+        final long started = System.nanoTime();
+        for (int i = 0; i < calls; i++) {
+            algorithm.apply(1 + i % 20);
+        }
+        long ms = (System.nanoTime() - started) / 1000000;
+        System.err.println("Warmed up " + language + " by " + calls + " calls in " + ms + " ms");
+    }
+
+    /** Opens the persistent store of results configured by RESULT_STORE. */
+    private void openStore() {
+        try {
+            store = ResultStore.fromEnvironment();
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+        if (store != null) {
+            metrics.register("polyglot_store_hits_total", "counter", "Results read from the persistent store.", store::hits);
+            metrics.register("polyglot_store_bytes", "gauge", "Size of the persistent store.", store::size);
+        }
+    }
+
+    /** Finds the result in the persistent store.
+     * @return text of the result mapped from the disk or {@code null}
+     */
+    public ByteBuffer stored(String language, int n) {
+        if (store == null) {
+            return null;
+        }
+        try {
+            return store.get(language, n);
+        } catch (IOException ex) {
+            ex.printStackTrace();
+            return null;
+        }
+    }
+
+    /** Persists the result, if the store is configured and N large enough. */
+    public void remember(String language, int n, Object value) {
+        if (store == null || value == null) {
+            return;
+        }
+        try {
+            store.put(language, n, value);
+        } catch (IOException ex) {
+            ex.printStackTrace();
+        }
+    }
+
+    /** Sends a stored result followed by a new line. The Java server
+     * writes the mapped bytes directly, the node.js one gets them as text.
+     */
+    static void respondStored(ByteBuffer text, ServerResponse out) {
+        if (!NioServer.endLine(out, text)) {
+            out.end(StandardCharsets.UTF_8.decode(text) + "\n");
+        }
+    }
+
+    /** All languages are warmed up and the server accepts requests. */
+    public boolean isReady() {
+        return ready;
+    }
+
     public static Services getDefault() {
         return INSTANCE;
     }
 
     public void postInit(Algorithms newAlgorithms) {
+#if (!$serverCode.equals("js"))
+        postInit(newAlgorithms, "nio".equals(System.getenv("HTTP_SERVER")));
+    }
+
+    /** Warms up the algorithms and starts the HTTP server, the Java one
+     * if {@code nio} is set and the node.js one otherwise.
+     */
+    void postInit(Algorithms newAlgorithms, boolean nio) {
+#end
         if (newAlgorithms == null) {
 #if (!$serverCode.equals("js"))
             newAlgorithms = new AlgorithmsImpl();
@@ -77,63 +224,356 @@ public class Services {
             throw new NullPointerException();
 #end
         }
-        this.algorithms = newAlgorithms;
+        openStore();
+        warmUp(newAlgorithms);
+        this.algorithms = cache.wrap(newAlgorithms);
 #if (!$serverCode.equals("js"))
-        final Object rawHttp = require.require("http");
-        Http http = global.cast(rawHttp, (Http) null);
-        Server server = http.createServer((in, out) -> {
-            final String url = in.url();
-            if (url.equals("/quit")) {
-                out.end("Quiting...\n");
-                global.quit();
-            }
+        final Worker compute = nio ? NioServer.worker() : worker;
+        router.exact("/quit", onEventLoop(nio, (n, in, out) -> {
+            out.end("Quiting...\n");
+            global.quit();
+        }));
+        router.exact("/ready", (n, in, out) -> out.end(ready ? "Ready\n" : "Warming up\n"));
+        router.exact("/metrics", (n, in, out) -> out.end(metrics.toPrometheus()));
 #if ($algorithmJava.equals("true"))
-            if (url.startsWith("/java/")) {
-                worker.submit(() -> {
-                    final BigInteger result = algorithms.java(Integer.parseInt(url.substring(6)));
+        final Metrics.Histogram javaQueue = metrics.histogram("java", "queue");
+        final Metrics.Histogram javaCompute = metrics.histogram("java", "compute");
+        final Metrics.Histogram javaSerialize = metrics.histogram("java", "serialize");
+        router.prefix("/java/", (n, in, out) -> {
+            final ByteBuffer stored = stored("java", n);
+            if (stored != null) {
+                respondStored(stored, out);
+                return;
+            }
+            final Admission.Permit permit = admission.tryAcquire("java", n);
+            if (permit == null) {
+                reject(out);
+                return;
+            }
+            final Cancellation cancellation = cancellation("java", out);
+            final long submitted = System.nanoTime();
+            inFlight.add(1);
+            compute.submit(() -> {
+                final long started = System.nanoTime();
+                javaQueue.record(started - submitted);
+                try {
+                    // algorithms.java(n) only delegates to factorial
+                    BigInteger result = factorial(n, cancellation);
+                    javaCompute.record(System.nanoTime() - started);
                     return result;
-                }, (result) -> {
-                    out.end(result + "\n");
-                });
+                } catch (CancellationException ex) {
+                    return null;
+                }
+            }, (result) -> {
+                permit.release();
+                inFlight.add(-1);
+                if (result == null) {
+                    cancelledOrFailed(cancellation, out);
+                    return;
+                }
+                final long started = System.nanoTime();
+                respond(result, out);
+                javaSerialize.record(System.nanoTime() - started);
+            });
+        });
+        router.range("/java/", (from, to, in, out) -> {
+            if (!checkBatch(from, to, out)) {
                 return;
             }
-#end
-#if ($algorithmRuby.equals("true"))
-            if (url.startsWith("/ruby/")) {
-                out.end(algorithms.ruby(Integer.parseInt(url.substring(6))) + "\n");
+            final Admission.Permit permit = admission.tryAcquire("java", to);
+            if (permit == null) {
+                reject(out);
                 return;
             }
+            final Cancellation cancellation = cancellation("java", out);
+            inFlight.add(1);
+            compute.submit(() -> {
+                try {
+                    return factorials(from, to, cancellation);
+                } catch (CancellationException ex) {
+                    return null;
+                }
+            }, (values) -> {
+                permit.release();
+                inFlight.add(-1);
+                if (values == null) {
+                    cancelledOrFailed(cancellation, out);
+                    return;
+                }
+                respondBatch(from, values, out);
+            });
+        });
+#end
+#if ($algorithmRuby.equals("true"))
+        router.prefix("/ruby/", onEventLoop(nio, measured("ruby", (n) -> algorithms.ruby(n))));
+        router.range("/ruby/", onEventLoop(nio, batch((from, to, each) -> algorithms.rubyBatch(from, to, each))));
 #end
 #if ($algorithmJS.equals("true"))
-            if (url.startsWith("/js/")) {
-                out.end(algorithms.js(Integer.parseInt(url.substring(4))) + "\n");
-                return;
-            }
+        router.prefix("/js/", onEventLoop(nio, measured("js", (n) -> algorithms.js(n))));
+        router.range("/js/", onEventLoop(nio, batch((from, to, each) -> algorithms.jsBatch(from, to, each))));
 #end
 #if ($algorithmR.equals("true"))
-            if (url.startsWith("/r/")) {
-                out.end(algorithms.r(Integer.parseInt(url.substring(3))) + "\n");
+        router.prefix("/r/", onEventLoop(nio, measured("r", (n) -> algorithms.r(n))));
+        router.range("/r/", onEventLoop(nio, batch((from, to, each) -> algorithms.rBatch(from, to, each))));
+#end
+        final Handler handler = (in, out) -> {
+            final String url = in.url();
+            if (!router.dispatch(url, in, out)) {
+                out.end("Received: " + url + "\n");
+            }
+        };
+        if (nio) {
+            try {
+                nioServer = new NioServer(PORT, handler);
+            } catch (IOException ex) {
+                throw new UncheckedIOException(ex);
+            }
+            nioServer.start();
+        } else {
+            Http http = require.require("http");
+            Server server = http.createServer(handler);
+            server.listen(PORT);
+        }
+        System.err.println("Listening on http://localhost:" + PORT + "/");
+#end
+    }
+#if (!$serverCode.equals("js"))
+
+    /** Route computing the result and sending it as text, both timed. */
+    private Router.Route measured(String language, IntFunction<Object> algorithm) {
+        final Metrics.Histogram computeTime = metrics.histogram(language, "compute");
+        final Metrics.Histogram serializeTime = metrics.histogram(language, "serialize");
+        return (n, in, out) -> {
+            final Cancellation cancellation = cancellation(language, out);
+            if (cancellation.isCancelled()) {
+                // the client went away while waiting for the event loop
+                cancelled(cancellation, out);
                 return;
             }
+            final ByteBuffer stored = stored(language, n);
+            if (stored != null) {
+                respondStored(stored, out);
+                return;
+            }
+            final long started = System.nanoTime();
+            final Object result = algorithm.apply(n);
+            final long computed = System.nanoTime();
+            computeTime.record(computed - started);
+            out.end(result + "\n");
+            serializeTime.record(System.nanoTime() - computed);
+            remember(language, n, result);
+        };
+    }
+
+    /** Route streaming all the values of a range as NDJSON. */
+    private Router.RangeRoute batch(BatchComputation algorithm) {
+        return (from, to, in, out) -> {
+            if (checkBatch(from, to, out)) {
+                final BatchLines lines = new BatchLines(out);
+                algorithm.compute(from, to, lines);
+                lines.end();
+            }
+        };
+    }
+
+    /** In HTTP_SERVER=nio mode requests arrive on a Java thread. Guest
+     * languages may only be called from the node.js event loop, hence
+     * such routes are queued until {@link #runEventLoopTasks()}.
+     */
+    private Router.Route onEventLoop(boolean nio, Router.Route route) {
+        if (!nio) {
+            return route;
+        }
+        return (n, in, out) -> eventLoopTasks.add(() -> route.handle(n, in, out));
+    }
+
+    private Router.RangeRoute onEventLoop(boolean nio, Router.RangeRoute route) {
+        if (!nio) {
+            return route;
+        }
+        return (from, to, in, out) -> eventLoopTasks.add(() -> route.handle(from, to, in, out));
+    }
+
+    /** Is the HTTP server written in plain Java rather than node.js one? */
+    public boolean isNioServer() {
+        return nioServer != null;
+    }
+
+    /** Called periodically from the node.js event loop. */
+    public void runEventLoopTasks() {
+        for (;;) {
+            Runnable task = eventLoopTasks.poll();
+            if (task == null) {
+                break;
+            }
+            task.run();
+        }
+    }
 #end
-            out.end("Received: " + url + "\n");
+
+    public Algorithms getAlgorithms() {
+        return algorithms;
+    }
+
+    public ResultCache getCache() {
+        return cache;
+    }
+
+    public Metrics getMetrics() {
+        return metrics;
+    }
+
+    /** Counts jobs submitted to worker threads. */
+    public Metrics.Gauge getJobsInFlight() {
+        return inFlight;
+    }
+
+    /** Decides which jobs may be submitted to worker threads. */
+    public Admission getAdmission() {
+        return admission;
+    }
+
+    /** Token cancelled when the client of the request goes away or when
+     * the deadline of the route passes. Deadlines in milliseconds are read
+     * from DEADLINE_MS_JAVA, DEADLINE_MS_JS, ... or DEADLINE_MS for all
+     * the routes; none by default.
+     */
+    public Cancellation cancellation(String route, ServerResponse out) {
+        final Cancellation cancellation = Cancellation.after(deadlines.computeIfAbsent(route, Services::deadlineMillis));
+        out.on("close", () -> {
+            if (!out.writableFinished()) {
+                cancellation.cancel();
+            }
         });
-        server.listen(PORT);
-        System.err.println("Listening on http://localhost:" + PORT + "/");
+        return cancellation;
+    }
+
+    private static long deadlineMillis(String route) {
+        String ms = System.getenv("DEADLINE_MS_" + route.toUpperCase(Locale.ENGLISH));
+        if (ms == null) {
+            ms = System.getenv("DEADLINE_MS");
+        }
+        return ms == null ? 0 : Long.parseLong(ms);
+    }
+
+    /** Answers a request whose computation has been cancelled by 504,
+     * unless the client is gone already.
+     */
+    public void cancelled(Cancellation cancellation, ServerResponse out) {
+        if (cancellation.isExpired() && !out.writableFinished()) {
+            out.writeHead(504, "Gateway Timeout");
+            out.end("Deadline exceeded\n");
+        }
+    }
+
+    /** Answers a request whose background computation produced no
+     * result. It has either been cancelled or it has failed, the latter is
+     * answered by 500.
+     */
+    public void cancelledOrFailed(Cancellation cancellation, ServerResponse out) {
+        if (cancellation.isCancelled()) {
+            cancelled(cancellation, out);
+        } else if (!out.writableFinished()) {
+            out.writeHead(500, "Internal Server Error");
+            out.end("Computation failed\n");
+        }
+    }
+
+    /** Refuses a batch of more than {@link #MAX_BATCH} values by 400.
+     * @return {@code true} if the batch may be computed
+     */
+    public boolean checkBatch(int from, int to, ServerResponse out) {
+        if (to - from < MAX_BATCH) {
+            return true;
+        }
+        out.writeHead(400, "Bad Request");
+        out.end("At most " + MAX_BATCH + " values in a batch\n");
+        return false;
+    }
+
+    /** Streams values of {@code from, from + 1, ...} as NDJSON. */
+    public void respondBatch(int from, List<?> values, ServerResponse out) {
+        final BatchLines lines = new BatchLines(out);
+        for (int i = 0; i < values.size(); i++) {
+            lines.accept(from + i, values.get(i));
+        }
+        lines.end();
+    }
+
+    /** Lines of a batch response, e.g. {@code {"n":5,"value":"120"}}.
+     * They are collected and written in chunks of about
+     * {@link #BATCH_CHUNK} characters rather than one by one.
+     */
+    static final class BatchLines implements BatchResult {
+        private static final int BATCH_CHUNK = 16 * 1024;
+
+        private final ServerResponse out;
+        private final StringBuilder buffer = new StringBuilder();
+
+        BatchLines(ServerResponse out) {
+            this.out = out;
+        }
+
+        @Override
+        public void accept(int n, Object value) {
+            buffer.append("{\"n\":").append(n).append(",\"value\":\"");
+#if ($algorithmJava.equals("true"))
+            if (value instanceof BigInteger) {
+                writeDecimal((BigInteger) value, buffer::append);
+            } else {
+                buffer.append(value);
+            }
+#else
+            buffer.append(value);
 #end
+            buffer.append("\"}\n");
+            if (buffer.length() >= BATCH_CHUNK) {
+                flush();
+            }
+        }
+
+        void end() {
+            flush();
+            out.end();
+        }
+
+        private void flush() {
+            if (buffer.length() > 0) {
+                out.write(buffer.toString());
+                buffer.setLength(0);
+            }
+        }
+    }
+
+    /** Answers a request refused by {@link Admission} by 503. */
+    public void reject(ServerResponse out) {
+        out.setHeader("Retry-After", Integer.toString(admission.retryAfter()));
+        out.writeHead(503, "Service Unavailable");
+        out.end("Too many requests, retry later\n");
     }
+#if (!$serverCode.equals("js"))
+
+    /** Routes of the HTTP server. Register additional endpoints here. */
+    public Router getRouter() {
+        return router;
+    }
+#end
 
+    /** The node.js {@code require} function. Only the node.js HTTP server
+     * needs it, to load the {@code http} module.
+     */
     @FunctionalInterface
     public interface Require {
-        Object require(String module);
+        Http require(String module);
     }
 
     public interface Global {
         public Polyglot Polyglot();
+        /** Evaluates the source at most once in this context. */
+        public Object evalSource(GuestSource source);
         public void quit();
-        public Http cast(Object value, Http prototype);
-        public Server cast(Object value, Server prototype);
         public Computation cast(Object value, Computation prototype);
+        public BatchComputation cast(Object value, BatchComputation prototype);
     }
 
     public interface Polyglot {
@@ -143,7 +583,33 @@ public class Services {
 
     @FunctionalInterface
     public interface Worker {
+        /** Computes {@code background} and passes its result to
+         * {@code finish}. When the computation throws an exception,
+         * {@code finish} receives {@code null}.
+         */
         public <T> void submit(Supplier<T> background, Consumer<T> finish);
+
+        /** Computes all the suppliers in background and then passes their
+         * results to {@code finish}. Implementations may send them to
+         * the background thread as a single batch.
+         */
+        public default <T> void submitAll(List<Supplier<T>> background, Consumer<List<T>> finish) {
+            final List<T> results = new ArrayList<>(Collections.nCopies(background.size(), null));
+            final int[] remaining = { background.size() };
+            if (remaining[0] == 0) {
+                finish.accept(results);
+                return;
+            }
+            for (int i = 0; i < background.size(); i++) {
+                final int index = i;
+                submit(background.get(i), (result) -> {
+                    results.set(index, result);
+                    if (--remaining[0] == 0) {
+                        finish.accept(results);
+                    }
+                });
+            }
+        }
     }
 
     public interface Http {
@@ -163,69 +629,288 @@ public class Services {
         String url();
     }
 
+    /** Response to a HTTP request. Either call {@link #end(String)} once
+     * or stream the content by {@link #write(String)} and finish it with
+     * {@link #end()}. Streamed content is sent with chunked encoding.
+     * Headers and status other than 200 have to be set before any content.
+     * The {@code "close"} listeners are called once the response is sent
+     * or the connection is lost, whichever comes first.
+     */
     public interface ServerResponse {
+        void setHeader(String name, String value);
+        void writeHead(int status, String message);
+        void on(String event, Runnable listener);
+        boolean writableFinished();
+        void write(String chunk);
+        void end();
         void end(String text);
     }
 
-    public static final class TransferablePromiseCompletion {
-        private final Object resolve;
-        private final Object reject;
-        private final Thread ownerThread;
+#if ($algorithmJava.equals("true"))
+    /** Encodes a result for transfer to another thread as bytes:
+     * {@code "digits"} are UTF-8 decimal digits of its text, {@code "magnitude"}
+     * the big-endian two's-complement representation of a BigInteger. The
+     * buffer is direct, so that {@code new ArrayBuffer(buffer)} can wrap it.
+     */
+    public static ByteBuffer encode(Object value, String transport) {
+        final byte[] bytes;
+        if ("digits".equals(transport)) {
+            bytes = value.toString().getBytes(StandardCharsets.UTF_8);
+        } else if ("magnitude".equals(transport) && value instanceof BigInteger) {
+            bytes = ((BigInteger) value).toByteArray();
+        } else {
+            throw new IllegalArgumentException("Cannot encode " + value.getClass().getSimpleName() + " as " + transport);
+        }
+        ByteBuffer buffer = ByteBuffer.allocateDirect(bytes.length);
+        buffer.put(bytes).flip();
+        return buffer;
+    }
+
+    public BigInteger factorial(int value) {
+        return factorial(value, Cancellation.never());
+    }
 
-        public TransferablePromiseCompletion(Object resolve, Object reject) {
-            this.resolve = resolve;
-            this.reject = reject;
-            this.ownerThread = Thread.currentThread();
+    /** Computes the factorial unless the cancellation stops it.
+     * @throws java.util.concurrent.CancellationException when cancelled
+     */
+    public BigInteger factorial(int value, Cancellation cancellation) {
+        if (value < 2) {
+            return BigInteger.ONE;
+        }
+        BigInteger result = (BigInteger) cache.get("java", value);
+        if (result != null) {
+            return result;
+        }
+        Map.Entry<Integer, Object> lower = cache.lower("java", value);
+        Map.Entry<Integer, Object> higher = cache.higher("java", value);
+        int fromBelow = lower == null ? value : value - lower.getKey();
+        if (higher != null && higher.getKey() - value < fromBelow) {
+            BigInteger divisor = multiplyRange(value + 1, higher.getKey(), cancellation);
+            cancellation.check();
+            result = ((BigInteger) higher.getValue()).divide(divisor);
+        } else if (lower != null) {
+            result = ((BigInteger) lower.getValue()).multiply(multiplyRange(lower.getKey() + 1, value, cancellation));
+        } else {
+            result = multiplyRange(1, value, cancellation);
         }
+        cache.put("java", value, result);
+        remember("java", value, result);
+        return result;
+    }
 
-        public Object getPromiseResolve() {
-            assert Thread.currentThread() == this.ownerThread : "This object must be accessed from the creating thread";
-            return this.resolve;
+    /** Computes factorials of {@code from..to} by a running product, so the
+     * batch costs about as much as {@code to!} alone.
+     */
+    public List<BigInteger> factorials(int from, int to, Cancellation cancellation) {
+        final List<BigInteger> values = new ArrayList<>(to - from + 1);
+        BigInteger value = factorial(from, cancellation);
+        values.add(value);
+        for (int n = from + 1; n <= to; n++) {
+            cancellation.check();
+            value = value.multiply(BigInteger.valueOf(n));
+            values.add(value);
         }
+        cache.put("java", to, value);
+        return values;
+    }
 
-        public Object getPromiseReject() {
-            assert Thread.currentThread() == this.ownerThread : "This object must be accessed from the creating thread";
-            return this.reject;
-        }        
+    /** Streams decimal digits of the value followed by a new line. The
+     * first chunk is sent long before the whole value is converted.
+     */
+    public void respond(BigInteger value, ServerResponse out) {
+        writeDecimal(value, out);
+        out.end("\n");
     }
 
-#if ($algorithmJava.equals("true"))
-    public BigInteger factorial(int value) {
-        BigInteger one = BigInteger.valueOf(1);
-        BigInteger n = BigInteger.valueOf(value);
-        BigInteger result = one;
-        while (n.compareTo(one) >= 0) {
-            result = result.multiply(n);
-            n = n.subtract(one);
+    private static final int CHUNK_DIGITS = 8192;
+    private static final List<BigInteger> TEN_POWERS = new ArrayList<>();
+
+    /** Writes the value in chunks of {@link #CHUNK_DIGITS} digits. */
+    static void writeDecimal(BigInteger value, ServerResponse out) {
+        writeDecimal(value, out::write);
+    }
+
+    private static void writeDecimal(BigInteger value, Consumer<String> out) {
+        if (value.signum() < 0) {
+            out.accept("-");
+            value = value.negate();
+        }
+        // 1234 / 4096 is a little more than log10(2), so digits is never too small
+        long digits = (long) value.bitLength() * 1234 / 4096 + 1;
+        int level = 0;
+        while ((long) CHUNK_DIGITS << level < digits) {
+            level++;
+        }
+        writeDigits(value, level, false, out);
+    }
+
+    /** Writes value smaller than {@code 10^(CHUNK_DIGITS * 2^level)}. */
+    private static void writeDigits(BigInteger value, int level, boolean pad, Consumer<String> out) {
+        if (level == 0) {
+            String text = value.toString();
+            if (pad && text.length() < CHUNK_DIGITS) {
+                char[] zeros = new char[CHUNK_DIGITS - text.length()];
+                Arrays.fill(zeros, '0');
+                text = new String(zeros).concat(text);
+            }
+            out.accept(text);
+            return;
+        }
+        BigInteger[] highLow = value.divideAndRemainder(tenPower(level - 1));
+        if (pad || highLow[0].signum() != 0) {
+            writeDigits(highLow[0], level - 1, pad, out);
+            writeDigits(highLow[1], level - 1, true, out);
+        } else {
+            writeDigits(highLow[1], level - 1, false, out);
+        }
+    }
+
+    /** @return {@code 10^(CHUNK_DIGITS * 2^level)} */
+    private static BigInteger tenPower(int level) {
+        synchronized (TEN_POWERS) {
+            if (TEN_POWERS.isEmpty()) {
+                TEN_POWERS.add(BigInteger.TEN.pow(CHUNK_DIGITS));
+            }
+            while (TEN_POWERS.size() <= level) {
+                BigInteger last = TEN_POWERS.get(TEN_POWERS.size() - 1);
+                TEN_POWERS.add(last.multiply(last));
+            }
+            return TEN_POWERS.get(level);
+        }
+    }
+
+    /** Computes {@code from * (from + 1) * ... * to} without consulting the cache. */
+    static BigInteger multiplyRange(int from, int to) {
+        return multiplyRange(from, to, Cancellation.never());
+    }
+
+    static BigInteger multiplyRange(int from, int to, Cancellation cancellation) {
+        return FactorialTask.multiply(from, to, cancellation);
+    }
+
+    /** Multiplies numbers {@code from..to} as a balanced product tree and
+     * computes big enough subtrees in parallel. Every leaf checks the
+     * cancellation first.
+     */
+    private static final class FactorialTask extends RecursiveTask<BigInteger> {
+        private static final int PARALLEL_THRESHOLD = 4096;
+        private static final int LEAF_SIZE = 32;
+
+        private final int from;
+        private final int to;
+        private final Cancellation cancellation;
+
+        FactorialTask(int from, int to, Cancellation cancellation) {
+            this.from = from;
+            this.to = to;
+            this.cancellation = cancellation;
+        }
+
+        @Override
+        protected BigInteger compute() {
+            if (to - from < PARALLEL_THRESHOLD) {
+                return product(from, to, cancellation);
+            }
+            int middle = (from + to) >>> 1;
+            FactorialTask lower = new FactorialTask(from, middle, cancellation);
+            lower.fork();
+            BigInteger upper = new FactorialTask(middle + 1, to, cancellation).compute();
+            BigInteger product = lower.join();
+            cancellation.check();
+            return product.multiply(upper);
+        }
+
+        static BigInteger multiply(int from, int to, Cancellation cancellation) {
+            if (to - from < PARALLEL_THRESHOLD) {
+                return product(from, to, cancellation);
+            }
+            return ForkJoinPool.commonPool().invoke(new FactorialTask(from, to, cancellation));
+        }
+
+        static BigInteger product(int from, int to, Cancellation cancellation) {
+            if (to - from < LEAF_SIZE) {
+                cancellation.check();
+                BigInteger result = BigInteger.ONE;
+                long acc = 1;
+                for (long i = from; i <= to; i++) {
+                    if (acc > Long.MAX_VALUE / i) {
+                        result = result.multiply(BigInteger.valueOf(acc));
+                        acc = 1;
+                    }
+                    acc *= i;
+                }
+                return result.multiply(BigInteger.valueOf(acc));
+            }
+            int middle = (from + to) >>> 1;
+            return product(from, middle, cancellation).multiply(product(middle + 1, to, cancellation));
         }
-        return result;
     }
 #end
 
+    /** Each algorithm computes a single value or all values {@code from..to}
+     * in one pass. The batch methods call the single ones by default.
+     */
     public interface Algorithms {
 #if ($algorithmJava.equals("true"))
         BigInteger java(int n);
+
+        default void javaBatch(int from, int to, BatchResult each) {
+            for (int n = from; n <= to; n++) {
+                each.accept(n, java(n));
+            }
+        }
 #end
 #if ($algorithmRuby.equals("true"))
         String ruby(int n);
+
+        default void rubyBatch(int from, int to, BatchResult each) {
+            for (int n = from; n <= to; n++) {
+                each.accept(n, ruby(n));
+            }
+        }
 #end
 #if ($algorithmJS.equals("true"))
         Number js(int n);
+
+        default void jsBatch(int from, int to, BatchResult each) {
+            for (int n = from; n <= to; n++) {
+                each.accept(n, js(n));
+            }
+        }
 #end
 #if ($algorithmR.equals("true"))
         Number r(int n);
+
+        default void rBatch(int from, int to, BatchResult each) {
+            for (int n = from; n <= to; n++) {
+                each.accept(n, r(n));
+            }
+        }
 #end
     }
 
+    /** Receives results of a batch in increasing order of n. */
+    @FunctionalInterface
+    public interface BatchResult {
+        void accept(int n, Object value);
+    }
+
     @FunctionalInterface
     public interface Computation {
         public Object compute(Object value);
     }
 
-#if (!$serverCode.equals("js"))
-    private final class AlgorithmsImpl implements Algorithms {
+    /** Computes values {@code from..to} and passes each of them to {@code each}. */
+    @FunctionalInterface
+    public interface BatchComputation {
+        public void compute(int from, int to, BatchResult each);
+    }
+
+#if (!$serverCode.equals("js") || $benchmarks.equals("true"))
+    final class AlgorithmsImpl implements Algorithms {
 #if ($algorithmRuby.equals("true"))
         private Computation ruby;
+        private BatchComputation rubyBatch;
 #end
 #if ($algorithmJS.equals("true"))
         private Computation js;
@@ -238,19 +923,21 @@ public class Services {
         public final BigInteger java(int n) {
             return factorial(n);
         }
+
+        @Override
+        public final void javaBatch(int from, int to, BatchResult each) {
+            List<BigInteger> values = factorials(from, to, Cancellation.never());
+            for (int i = 0; i < values.size(); i++) {
+                each.accept(from + i, values.get(i));
+            }
+        }
 #end
 
 #if ($algorithmJS.equals("true"))
         @Override
         public final Number js(int n) {
             if (js == null) {
-                final String jsCode =
-                    "(function fac(n) {\n" +
-                    "    if (n <= 1) return 1;\n" +
-                    "    return n * fac(n - 1);\n" +
-                    "})\n";
-
-                Object fn = global.Polyglot().eval("text/javascript", jsCode);
+                Object fn = global.evalSource(GuestSource.JS_FACTORIAL);
                 js = global.cast(fn, (Computation) null);
             }
             return (Number) js.compute(n);
@@ -261,7 +948,7 @@ public class Services {
         @Override
         public final Number r(int n) {
             if (r == null) {
-                Object fn = global.Polyglot().eval("text/x-r", "factorial");
+                Object fn = global.evalSource(GuestSource.R_FACTORIAL);
                 r = global.cast(fn, (Computation) null);
             }
             return (Number) r.compute(n);
@@ -272,17 +959,20 @@ public class Services {
         @Override
         public final String ruby(int n) {
             if (ruby == null) {
-                String rubyCode =
-                    "def fac(n)\n" +
-                    "  f = (1..n).reduce(1, :*)\n" +
-                    "  f.to_s\n" +
-                    "end\n" +
-                    "method(:fac)";
-                Object fn = global.Polyglot().eval("application/x-ruby", rubyCode);
+                Object fn = global.evalSource(GuestSource.RUBY_FACTORIAL);
                 ruby = global.cast(fn, (Computation) null);
             }
             return (String) ruby.compute(n);
         }
+
+        @Override
+        public final void rubyBatch(int from, int to, BatchResult each) {
+            if (rubyBatch == null) {
+                Object fn = global.evalSource(GuestSource.RUBY_FACTORIALS);
+                rubyBatch = global.cast(fn, (BatchComputation) null);
+            }
+            rubyBatch.compute(from, to, each);
+        }
 #end
     }
 #end
@@ -0,0 +1,172 @@
+#*
+ * Copyright (c) 2017 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or data
+ * (collectively the "Software"), free of charge and under any and all copyright
+ * rights in the Software, and any and all patent rights owned or freely
+ * licensable by each licensor hereunder covering either (i) the unmodified
+ * Software as contributed to or provided by such licensor, or (ii) the Larger
+ * Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ *
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ *
+ * The above copyright notice and either this complete permission notice or at a
+ * minimum a reference to the UPL must be included in all copies or substantial
+ * portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *#
+
+/* Supervisor of a cluster of node.js processes sharing the same PORT.
+ * Each process runs its own Services with own event loop, so the inline
+ * /js/, /ruby/ and /r/ routes can use all the cores. Crashed workers are
+ * restarted, quickly crashing ones with increasing delay. Health of all
+ * workers is printed on every change and served as JSON on
+ * CLUSTER_HEALTH_PORT, if specified.
+ */
+const cluster = require('cluster');
+
+function workerCount(value) {
+    if (value === 'auto') {
+        return require('os').cpus().length;
+    }
+    const count = Number.parseInt(value);
+    return count > 0 ? count : 0;
+}
+
+/* Returns true in the supervising process, which should do nothing else.
+ * Returns false in a worker or when the cluster isn't requested.
+ */
+function supervise(workers) {
+    const count = workerCount(workers);
+    if (count === 0) {
+        return false;
+    }
+    if (!cluster.isMaster) {
+        return false;
+    }
+    if (process.env.HTTP_SERVER === 'nio') {
+        /* Java server binds the port itself, it cannot be shared */
+        console.error("CLUSTER_WORKERS cannot be used with HTTP_SERVER=nio, starting single process");
+        return false;
+    }
+    const cpus = require('os').cpus().length;
+    const env = {};
+    if (!process.env.POLYGLOT_WORKERS) {
+        /* share the cores among the processes */
+        env.POLYGLOT_WORKERS = Math.max(1, Math.floor(cpus / count));
+    }
+    const health = new Map();
+    var stopping = false;
+
+    function report() {
+        const all = Array.from(health.values());
+        const listening = all.filter((w) => w.state === 'listening').length;
+        console.log("Cluster: " + listening + " of " + count + " workers listening, " +
+            all.reduce((sum, w) => sum + w.restarts, 0) + " restarts");
+    }
+
+    function start(slot) {
+        const w = cluster.fork(env);
+        const entry = health.get(slot);
+        entry.pid = w.process.pid;
+        entry.state = 'starting';
+        entry.started = Date.now();
+        w.on('listening', () => {
+            entry.state = 'listening';
+            entry.delay = 0;
+            report();
+        });
+        w.on('message', (m) => {
+            if (m && m.quit) {
+                stop();
+            }
+        });
+        w.on('exit', (code, signal) => {
+            entry.state = 'exited';
+            entry.pid = null;
+            if (stopping) {
+                if (Array.from(health.values()).every((e) => e.pid === null)) {
+                    process.exit();
+                }
+                return;
+            }
+            entry.restarts++;
+            /* a worker dying during startup is restarted with growing delay */
+            entry.delay = Date.now() - entry.started < 5000 ? Math.min(30000, Math.max(100, entry.delay * 2)) : 0;
+            console.log("Cluster: worker " + w.process.pid + " died (" + (signal || code) + "), restarting in " + entry.delay + " ms");
+            report();
+            setTimeout(() => {
+                if (!stopping) {
+                    start(slot);
+                }
+            }, entry.delay);
+        });
+    }
+
+    function stop() {
+        if (!stopping) {
+            stopping = true;
+            const alive = Object.values(cluster.workers);
+            if (alive.length === 0) {
+                process.exit();
+            }
+            alive.forEach((w) => w.kill());
+        }
+    }
+
+    for (let slot = 0; slot < count; slot++) {
+        health.set(slot, { pid : null, state : 'starting', restarts : 0, delay : 0, started : 0 });
+        start(slot);
+    }
+    process.on('SIGTERM', stop);
+    process.on('SIGINT', stop);
+
+    const healthPort = Number.parseInt(process.env.CLUSTER_HEALTH_PORT);
+    if (healthPort > 0) {
+        require('http').createServer((request, response) => {
+            const all = Array.from(health.values()).map((e) => ({ pid : e.pid, state : e.state, restarts : e.restarts }));
+            const up = all.every((e) => e.state === 'listening');
+            response.writeHead(up ? 200 : 503, { 'Content-Type' : 'application/json' });
+            response.end(JSON.stringify({ up, workers : all }) + '\n');
+        }).listen(healthPort);
+    }
+    return true;
+}
+
+/* Exits this process. A cluster worker asks the supervisor to stop
+ * the whole cluster first, otherwise it would just be restarted.
+ */
+function quit() {
+    if (cluster.isWorker) {
+        process.send({ quit : true }, () => process.exit());
+    } else {
+        process.exit();
+    }
+}
+
+module.exports = {
+    supervise : supervise,
+    quit : quit
+}
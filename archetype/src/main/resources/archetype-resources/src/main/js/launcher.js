@@ -46,16 +46,79 @@ if (typeof Java === 'undefined') {
 if (typeof Polyglot === 'undefined') {
     throw new 'GraalVM has to define Polyglot global symbol!';
 }
-const Worker = require('./polyglot_worker.js').NodePolyglotWorker;
+const WorkerPool = require('./polyglot_worker.js').NodePolyglotWorkerPool;
+const Router = require('./router.js').Router;
+const Cluster = require('./cluster.js');
 
-var executor = new Worker();
+#if ($unitTest.equals("true"))
+const unitTesting = process.argv.length > 2 && process.argv[2] === "org.apache.maven.surefire.booter.ForkedBooter";
+#else
+const unitTesting = false;
+#end
+/* with CLUSTER_WORKERS=N (or auto) this process only supervises N copies of itself */
+if (!unitTesting && Cluster.supervise(process.env.CLUSTER_WORKERS)) {
+    return;
+}
+
+/* POLYGLOT_WORKERS threads, defaults to number of available cores */
+var executor = new WorkerPool({
+    size : process.env.POLYGLOT_WORKERS,
+#if ($serverCode.equals("js"))
+    timing : (wait, took, tag) => {
+        const timer = timers[tag];
+        if (timer) {
+            timer.queue.record(wait);
+            timer.compute.record(took);
+        }
+    },
+#end
+    coalesce : process.env.POLYGLOT_COALESCE,
+    /* Admission in Services refuses requests before the queue gets full */
+    maxQueue : process.env.ADMISSION_QUEUE || 1024
+});
 var className = "${package}.Services";
 var servicesClass = Java.type(className);
-var services = new servicesClass(require, global, async (work, finish) => {
-    var r = await executor.submit(work);
-    finish(r);
+var services = new servicesClass(require, global, {
+    submit : async (work, finish) => {
+        var r;
+        try {
+            r = await executor.submit(work);
+        } catch (error) {
+            /* Services answers a null result by 500 */
+            console.error(error);
+            r = null;
+        }
+        finish(r);
+    },
+    submitAll : async (works, finish) => {
+        var targets = [];
+        for (var i = 0; i < works.size(); i++) {
+            targets.push(works.get(i));
+        }
+        var r;
+        try {
+            r = Java.to(await Promise.all(executor.submitAll(targets)), "java.util.List");
+        } catch (error) {
+            /* Services answers a null result by 500 */
+            console.error(error);
+            r = null;
+        }
+        finish(r);
+    }
 });
-global.quit = function() { process.exit() };
+global.quit = Cluster.quit;
+/* guest sources are looked up by their name, each is evaluated once */
+const GuestSource = Java.type("${package}.GuestSource");
+const evaluated = new Map();
+global.evalSource = function(source) {
+    const name = source.name();
+    var value = evaluated.get(name);
+    if (value === undefined) {
+        value = Polyglot.eval(source.mimeType(), source.code());
+        evaluated.set(name, value);
+    }
+    return value;
+};
 global.cast = function(value, prototype) {
     if (prototype != null) {
         throw "Use null as prototype, was: " + prototype;
@@ -65,8 +128,11 @@ global.cast = function(value, prototype) {
 #if ($serverCode.equals("js"))
 var algorithms = {
 #if ($algorithmJava.equals("true"))
-    'java' : function(n, worker) {
-        return worker ? worker.submit(services, {method:'factorial', args:[n]}) : services.factorial(n);
+    'java' : function(n, worker, cancellation, transport) {
+        if (worker) {
+            return worker.submit(services, {method:'factorial', args:[n, cancellation], tag:'java', cancellation, transport});
+        }
+        return services.factorial(n);
     },
 #end
 #if ($algorithmJS.equals("true"))
@@ -78,70 +144,240 @@ var algorithms = {
 #end
 #if ($algorithmRuby.equals("true"))
     'ruby' : function (n) {
-        algorithms.ruby = Polyglot.eval("application/x-ruby",
-            "def fac(n)\n" +
-            "  f = (1..n).reduce(1, :*)\n" +
-            "  f.to_s\n" +
-            "end\n" +
-            "method(:fac)"
-        );
+        algorithms.ruby = global.evalSource(GuestSource.RUBY_FACTORIAL);
         return algorithms.ruby(n);
     },
 #end
 #if ($algorithmR.equals("true"))
     'r' : function r(n) {
-        algorithms.r = Polyglot.eval("text/x-r", "factorial");
+        algorithms.r = global.evalSource(GuestSource.R_FACTORIAL);
         return algorithms.r(n);
     },
 #end
 };
+/* guest language algorithms, the worker threads evaluate their own copy */
+const message = (source) => ({ name : source.name(), mime : source.mimeType(), source : source.code() });
+var sources = {
+#if ($algorithmJS.equals("true"))
+    'js' : message(GuestSource.JS_FACTORIAL),
+#end
+#if ($algorithmRuby.equals("true"))
+    'ruby' : message(GuestSource.RUBY_FACTORIAL),
+#end
+#if ($algorithmR.equals("true"))
+    'r' : message(GuestSource.R_FACTORIAL),
+#end
+};
+
+/* with POLYGLOT_BINARY=true the worker threads send Java factorials to
+ * the event loop as bytes of decimal digits
+ */
+const binary = process.env.POLYGLOT_BINARY === 'true';
+/* requests for larger N than the threshold are computed in a worker
+ * thread, set OFFLOAD_ABOVE_JS, OFFLOAD_ABOVE_RUBY or OFFLOAD_ABOVE_R to
+ * change it, -1 offloads everything
+ */
+var offloadAbove = { js : 5000, ruby : 100, r : 5000 };
+Object.keys(offloadAbove).forEach((name) => {
+    const value = Number.parseInt(process.env["OFFLOAD_ABOVE_" + name.toUpperCase()]);
+    if (!Number.isNaN(value)) {
+        offloadAbove[name] = value;
+    }
+});
 services.postInit(algorithms);
+/* the same algorithms backed by shared ResultCache */
+var cached = services.getAlgorithms();
+var cache = services.getCache();
+var metrics = services.getMetrics();
+var admission = services.getAdmission();
+/* queue and compute time of jobs run by the worker pool */
+var timers = {};
+Object.keys(algorithms).forEach((name) => {
+    timers[name] = {
+        queue : metrics.histogram(name, "queue"),
+        compute : metrics.histogram(name, "compute")
+    };
+});
+/* parse the guest languages in every worker thread ahead */
+Object.keys(sources).forEach((name) => {
+    executor.broadcast(null, {eval : sources[name], args : [1]}).catch((error) => {
+        /* not fatal, each request evaluates the source again */
+        console.error("Cannot evaluate " + name + " ahead: " + error);
+    });
+});
 
 const PORT = 8080;
 
-var http = require("http");
-var server = http.createServer(async (request, response) => {
-    var url = request.url;
-    if (url === "/quit") {
-        response.end("Quiting...\n");
-        global.quit();
-        return;
-    }
-#if ($algorithmJava.equals("true"))
-    if (url.startsWith("/java/")) {
-        var res = await algorithms.java(Number.parseInt(url.substring(6)), executor);
-        response.end(res.toString() + '\n');
-        return;
+var router = new Router();
+router.exact("/quit", (n, request, response) => {
+    response.end("Quiting...\n");
+    global.quit();
+});
+/* postInit has warmed all the languages up before the server listens */
+router.exact("/ready", (n, request, response) => {
+    response.end(services.isReady() ? "Ready\n" : "Warming up\n");
+});
+router.exact("/metrics", (n, request, response) => {
+    response.end(metrics.toPrometheus());
+});
+const nanoTime = () => {
+    const t = process.hrtime();
+    return t[0] * 1e9 + t[1];
+};
+const inFlight = services.getJobsInFlight();
+/* runs job(cancellation) unless admission refuses it, resolves to
+ * undefined when the response has been answered already
+ */
+const offloaded = async (name, n, response, job) => {
+    const permit = admission.tryAcquire(name, n);
+    if (permit === null) {
+        services.reject(response);
+        return undefined;
     }
-#end
-#if ($algorithmRuby.equals("true"))
-    if (url.startsWith("/ruby/")) {
-        response.end(algorithms.ruby(Number.parseInt(url.substring(6))) + "\n");
-        return;
+    /* stops the job when the client goes away or the deadline passes */
+    const cancellation = services.cancellation(name, response);
+    inFlight.add(1);
+    try {
+        return await job(cancellation);
+    } catch (error) {
+        if (error.code === 'EQUEUEFULL') {
+            services.reject(response);
+        } else {
+            if (!cancellation.isCancelled()) {
+                console.error(error);
+            }
+            /* 504 when cancelled by the deadline, 500 on failure */
+            services.cancelledOrFailed(cancellation, response);
+        }
+        return undefined;
+    } finally {
+        inFlight.add(-1);
+        permit.release();
     }
+};
+/* values from..to computed in one pass by a running product */
+var batches = {
+#if ($algorithmJava.equals("true"))
+    'java' : (from, to, cancellation) => executor.submit(services, {method:'factorials', args:[from, to, cancellation], tag:'java', cancellation}),
 #end
 #if ($algorithmJS.equals("true"))
-    if (url.startsWith("/js/")) {
-        response.end(algorithms.js(Number.parseInt(url.substring(4))) + "\n");
-        return;
-    }
+    'js' : (from, to, each) => {
+        var f = algorithms.js(from);
+        each(from, f);
+        for (var n = from + 1; n <= to; n++) {
+            f *= n;
+            each(n, f);
+        }
+    },
+#end
+#if ($algorithmRuby.equals("true"))
+    'ruby' : (from, to, each) => {
+        batches.ruby = global.evalSource(GuestSource.RUBY_FACTORIALS);
+        batches.ruby(from, to, each);
+    },
 #end
 #if ($algorithmR.equals("true"))
-    if (url.startsWith("/r/")) {
-        response.end(algorithms.r(Number.parseInt(url.substring(3))) + "\n");
-        return;
-    }
+    'r' : (from, to, each) => {
+        for (var n = from; n <= to; n++) {
+            each(n, cached.r(n));
+        }
+    },
 #end
-    response.end("Received: " + url + "\n");
+};
+/* every entry in algorithms gets its /name/N and /name/FROM..TO endpoints */
+Object.keys(algorithms).forEach((name) => {
+    const isJava = name === 'java';
+    const threshold = isJava ? -1 : offloadAbove[name];
+    const computeTime = timers[name].compute;
+    const serializeTime = metrics.histogram(name, "serialize");
+    const offload = isJava ? (n, cancellation) => algorithms.java(n, executor, cancellation, binary ? 'digits' : undefined) : async (n, cancellation) => {
+        var res = cache.get(name, n);
+        if (res === null) {
+            res = await executor.submit(null, {eval : sources[name], args : [n], tag : name, cancellation});
+            cache.put(name, n, res);
+        }
+        return res;
+    };
+    router.prefix("/" + name + "/", async (n, request, response) => {
+        const stored = services.stored(name, n);
+        if (stored !== null) {
+            /* bytes of the result persisted by an earlier run, mapped from the disk */
+            response.write(Buffer.from(new ArrayBuffer(stored)));
+            response.end('\n');
+            return;
+        }
+        var started = nanoTime();
+        var res;
+        if (n > threshold) {
+            /* the worker pool records queue and compute time */
+            res = await offloaded(name, n, response, (cancellation) => offload(n, cancellation));
+            if (res === undefined) {
+                return;
+            }
+        } else {
+            res = cached[name](n);
+            computeTime.record(nanoTime() - started);
+        }
+        started = nanoTime();
+        if (isJava && binary) {
+            response.write(Buffer.from(res));
+            response.end('\n');
+        } else if (isJava) {
+            /* streams the digits in chunks */
+            services.respond(res, response);
+        } else {
+            response.end(res.toString() + '\n');
+        }
+        serializeTime.record(nanoTime() - started);
+        if (!isJava) {
+            /* Java factorials are persisted by the worker computing them */
+            services.remember(name, n, res.toString());
+        }
+    });
+    /* streams NDJSON lines {"n":N,"value":"N!"} */
+    router.range("/" + name + "/", async (from, to, request, response) => {
+        if (!services.checkBatch(from, to, response)) {
+            return;
+        }
+        if (isJava) {
+            const values = await offloaded(name, to, response, (cancellation) => batches.java(from, to, cancellation));
+            if (values !== undefined) {
+                services.respondBatch(from, values, response);
+            }
+            return;
+        }
+        /* lines are written in chunks, not one by one */
+        var lines = '';
+        batches[name](from, to, (n, value) => {
+            lines += '{"n":' + n + ',"value":"' + value + '"}\n';
+            if (lines.length >= 16384) {
+                response.write(lines);
+                lines = '';
+            }
+        });
+        response.end(lines);
+    });
+});
+
+var http = require("http");
+var server = http.createServer((request, response) => {
+    var url = request.url;
+    if (!router.dispatch(url, request, response)) {
+        response.end("Received: " + url + "\n");
+    }
 });
 server.listen(PORT);
 #else
 services.postInit(null);
+if (services.isNioServer()) {
+    // guest languages may only be entered from the node.js event loop
+    setInterval(() => services.runEventLoopTasks(), 1);
+}
 #end
 
 
 #if ($unitTest.equals("true"))
-if (process.argv.length > 2 && process.argv[2] === "org.apache.maven.surefire.booter.ForkedBooter") {
+if (unitTesting) {
     // run unit tests
     var clazz = process.argv[2];
     var servicesClass = Java.type(clazz);
@@ -38,52 +38,491 @@
  * SOFTWARE.
  *#
 
-/* Convenience Node.js worker used to offload Java calls to another thread. */
+/* Monotonic time in nanoseconds, comparable among all worker threads. */
+function nanoTime() {
+    const t = process.hrtime();
+    return t[0] * 1e9 + t[1];
+}
+
+/* Promise callbacks of jobs sent to a worker thread, keyed by an id
+ * that grows with every job - only the id travels with the message.
+ * Slot of an id is id & (size - 1), so a slot is reused as soon as its
+ * job is settled; when the next slot is still taken the ring doubles.
+ */
+function CompletionRing(capacity) {
+    var size = 1;
+    while (size < (capacity || 64)) {
+        size *= 2;
+    }
+    var ids = new Array(size).fill(-1);
+    var resolves = new Array(size).fill(null);
+    var rejects = new Array(size).fill(null);
+    var next = 0;
 
-function NodePolyglotWorker() {
-    const TransferablePromiseCompletion = Java.type("${package}.Services.TransferablePromiseCompletion");
+    function grow() {
+        const oldIds = ids, oldResolves = resolves, oldRejects = rejects;
+        size *= 2;
+        ids = new Array(size).fill(-1);
+        resolves = new Array(size).fill(null);
+        rejects = new Array(size).fill(null);
+        for (var i = 0; i < oldIds.length; i++) {
+            if (oldIds[i] !== -1) {
+                const slot = oldIds[i] & (size - 1);
+                ids[slot] = oldIds[i];
+                resolves[slot] = oldResolves[i];
+                rejects[slot] = oldRejects[i];
+            }
+        }
+    }
+
+    /* registers the callbacks and returns their id */
+    this.add = function(resolve, reject) {
+        const id = next;
+        next = (next + 1) % 0x40000000;
+        while (ids[id & (size - 1)] !== -1) {
+            grow();
+        }
+        const slot = id & (size - 1);
+        ids[slot] = id;
+        resolves[slot] = resolve;
+        rejects[slot] = reject;
+        return id;
+    };
+    /* calls and forgets the callbacks of the id, returns false for unknown one */
+    this.settle = function(id, error, result) {
+        const slot = id & (size - 1);
+        if (ids[slot] !== id) {
+            return false;
+        }
+        const callback = error ? rejects[slot] : resolves[slot];
+        ids[slot] = -1;
+        resolves[slot] = null;
+        rejects[slot] = null;
+        callback(error ? error : result);
+        return true;
+    };
+    /* rejects callbacks of all the ids not settled yet */
+    this.rejectAll = function(error) {
+        for (var i = 0; i < size; i++) {
+            if (ids[i] !== -1) {
+                this.settle(ids[i], error);
+            }
+        }
+    };
+    this.capacity = function() {
+        return size;
+    };
+}
+
+/* Convenience Node.js worker used to offload Java calls to another thread.
+ * All jobs submitted in the same tick can be sent to the worker thread in
+ * a single message when coalesce is true. The optional timing callback
+ * receives nanoseconds each job waited for the worker thread and ran on it
+ * together with the job's options.tag.
+ *
+ * Instead of a target the options may specify eval : {name, mime, source} -
+ * the source is evaluated in the worker thread once per name and the resulting
+ * function is called with the args. That way guest languages run in the worker.
+ *
+ * Jobs whose options.cancellation (a Java Cancellation) is cancelled by the
+ * time they reach the worker thread fail without running.
+ *
+ * With options.transport 'digits' (UTF-8 decimal digits) or 'magnitude'
+ * (big-endian two's-complement bytes of a BigInteger) the worker thread
+ * encodes the result by Services.encode and the job resolves to an
+ * ArrayBuffer - copied once out of the direct ByteBuffer in the worker
+ * thread and then transferred, not cloned, to the main thread - ready to be
+ * written to a socket as Buffer.from(result).
+ */
+function NodePolyglotWorker(coalesce, timing) {
     const { Worker } = require('worker_threads');
+    const self = this;
+    const completions = new CompletionRing();
+    var outbox = null;
+    this.pending = 0;
     this.worker = new Worker(`
                         const {parentPort} = require('worker_threads');
-                        parentPort.on('message', (m) => {
-                            var {completion, target, options} = m;
-                            var args = [];
-                            if (options) {
-                                args = options.args ? options.args : [];
-                                target = options.method ? target[options.method] : target;
+                        const Services = Java.type("${package}.Services");
+                        const now = () => {
+                            const t = process.hrtime();
+                            return t[0] * 1e9 + t[1];
+                        };
+                        const evaluated = new Map();
+                        const evaluate = (e) => {
+                            var fn = evaluated.get(e.name);
+                            if (!fn) {
+                                fn = Polyglot.eval(e.mime, e.source);
+                                evaluated.set(e.name, fn);
                             }
-                            try {
-                                var result = Reflect.apply(target, undefined, args);
-                                parentPort.postMessage({completion, result});
-                            } catch (error) {
-                                parentPort.postMessage({completion, error});
+                            return fn;
+                        };
+                        parentPort.on('message', (m) => {
+                            var results = [];
+                            var transfer = [];
+                            for (var job of m.jobs) {
+                                var {id, target, options, queued} = job;
+                                const started = now();
+                                var args = [];
+                                var tag;
+                                if (options) {
+                                    args = options.args ? options.args : [];
+                                    tag = options.tag;
+                                }
+                                try {
+                                    if (options && options.cancellation && options.cancellation.isCancelled()) {
+                                        throw new Error("Job has been cancelled");
+                                    }
+                                    if (options && options.eval) {
+                                        target = evaluate(options.eval);
+                                    } else if (options && options.method) {
+                                        target = target[options.method];
+                                    }
+                                    var result = Reflect.apply(target, undefined, args);
+                                    if (options && options.eval && typeof result === 'object' && result !== null) {
+                                        /* guest language values cannot be sent to other threads */
+                                        result = String(result);
+                                    }
+                                    if (options && options.transport) {
+                                        /* one copy from the direct ByteBuffer into a transferable one */
+                                        result = new Uint8Array(new ArrayBuffer(Services.encode(result, options.transport))).slice().buffer;
+                                        transfer.push(result);
+                                    }
+                                    results.push({id, result, tag, wait: started - queued, took: now() - started});
+                                } catch (error) {
+                                    results.push({id, error});
+                                }
                             }
+                            parentPort.postMessage({results}, transfer);
                         });
             `, {
                 eval: true
             });
     this.worker.on('message', function(m) {
-        const {completion} = m;
-        if (m.error) {
-            const reject = completion.getPromiseReject();
-            reject(m.error);
-        } else {
-            const resolve = completion.getPromiseResolve();
-            resolve(m.result);
+        for (const r of m.results) {
+            self.pending--;
+            if (timing && r.took !== undefined) {
+                timing(r.wait, r.took, r.tag);
+            }
+            completions.settle(r.id, r.error, r.result);
         }
     });
-    this.submit = function(target, options) {
-        const worker = this.worker;
+
+    function post(jobs) {
+        self.worker.postMessage({jobs});
+    }
+
+    function flush() {
+        const jobs = outbox;
+        outbox = null;
+        post(jobs);
+    }
+
+    function enqueue(target, options, direct, queued) {
+        self.pending++;
         return new Promise(function(resolve, reject) {
-            const completion = new TransferablePromiseCompletion(resolve, reject);
-            worker.postMessage({completion, target, options});
+            const id = completions.add(resolve, reject);
+            direct.push({id, target, options, queued: queued || nanoTime()});
+        });
+    }
+
+    this.submit = function(target, options) {
+        if (!coalesce) {
+            const jobs = [];
+            const promise = enqueue(target, options, jobs);
+            post(jobs);
+            return promise;
+        }
+        if (outbox === null) {
+            outbox = [];
+            process.nextTick(flush);
+        }
+        return enqueue(target, options, outbox);
+    };
+    /* Sends all {target, options} jobs in one message and returns a
+     * promise for each of them.
+     */
+    this.submitJobs = function(jobs) {
+        const message = [];
+        const promises = jobs.map((job) => enqueue(job.target, job.options, message, job.queued));
+        post(message);
+        return promises;
+    };
+    this.submitBatch = function(target, optionsList) {
+        return this.submitJobs(optionsList.map((options) => ({target, options})));
+    };
+    this.submitAll = function(targets) {
+        return this.submitJobs(targets.map((target) => ({target})));
+    };
+    this.terminate = function() {
+        return this.worker.terminate();
+    };
+    /* stops the thread without waiting for its jobs, they are rejected by the error */
+    this.abort = function(error) {
+        self.pending = 0;
+        completions.rejectAll(error);
+        return this.worker.terminate();
+    };
+}
+
+/*
+ * Pool of NodePolyglotWorker threads sharing one queue. Jobs wait in the
+ * queue until some worker has less than maxInFlight jobs, then go to the
+ * least loaded one - an idle worker thus always takes the next job instead
+ * of waiting behind a long computation on a busy one. With coalesce, jobs
+ * submitted in one tick (up to maxBatch of them) travel as a single batch.
+ * A batch is always handled by one worker. The config.timing callback gets
+ * time each job spent in the queue and on a worker thread. At most
+ * config.maxQueue jobs may wait in the queue, further ones are rejected
+ * with an error whose code is 'EQUEUEFULL'.
+ *
+ * Jobs with cancelled options.cancellation are rejected with code
+ * 'ECANCELED' instead of leaving the queue. Guest language code cannot be
+ * interrupted from another thread, so every config.cancelInterval ms
+ * (10 by default) a worker running a cancelled eval job is terminated and
+ * replaced by a fresh one; the other jobs it had are queued again.
+ */
+function NodePolyglotWorkerPool(config) {
+    config = config || {};
+    const size = Number.parseInt(config.size) > 0 ? Number.parseInt(config.size) : require('os').cpus().length;
+    const maxInFlight = Number.parseInt(config.maxInFlight) > 0 ? Number.parseInt(config.maxInFlight) : 1;
+    const maxBatch = Number.parseInt(config.maxBatch) > 0 ? Number.parseInt(config.maxBatch) : 16;
+    const maxQueue = Number.parseInt(config.maxQueue) > 0 ? Number.parseInt(config.maxQueue) : Infinity;
+    const cancelInterval = Number.parseInt(config.cancelInterval) > 0 ? Number.parseInt(config.cancelInterval) : 10;
+    const coalesce = config.coalesce === true || config.coalesce === 'true';
+
+    /* jobs run by every worker, including those spawned later */
+    const broadcasts = [];
+
+    function spawn() {
+        const w = new NodePolyglotWorker(false, config.timing);
+        w.running = new Set();
+        for (const b of broadcasts) {
+            /* the job fails alike in every worker, so log it rather than retire this one */
+            broadcastTo(w, b.target, b.options).catch((error) => console.error(error));
+        }
+        return w;
+    }
+
+    function broadcastTo(w, target, options) {
+        return w.submit(target, options).catch((error) => {
+            /* an aborted worker has been replaced by one running the job again */
+            if (error.code !== 'ECANCELED') {
+                throw error;
+            }
+        }).finally(pump);
+    }
+
+    const workers = [];
+    for (let i = 0; i < size; i++) {
+        workers.push(spawn());
+    }
+    const queue = [];
+    var queued = 0;
+    var gathering = null;
+    var terminated = null;
+
+    function leastLoaded() {
+        var best = null;
+        for (const w of workers) {
+            if (w.pending < maxInFlight && (best === null || w.pending < best.pending)) {
+                best = w;
+            }
+        }
+        return best;
+    }
+
+    function pump() {
+        while (queue.length > 0) {
+            const w = leastLoaded();
+            if (w === null) {
+                return;
+            }
+            const next = queue.shift();
+            queued -= next.length;
+            const batch = next.filter((entry) => {
+                if (cancelled(entry)) {
+                    entry.reject(cancelError());
+                    return false;
+                }
+                return true;
+            });
+            if (batch.length === 0) {
+                continue;
+            }
+            const promises = w.submitJobs(batch);
+            batch.forEach((entry) => w.running.add(entry));
+            /* entries taken away by reap() are settled by it, not by the worker */
+            promises.forEach((p, i) => p.then((result) => {
+                if (w.running.delete(batch[i])) {
+                    batch[i].resolve(result);
+                }
+            }, (error) => {
+                if (w.running.delete(batch[i])) {
+                    batch[i].reject(error);
+                }
+            }).finally(pump));
+        }
+        if (terminated !== null && !terminated.done && gathering === null && workers.every((w) => w.pending === 0)) {
+            terminated.done = true;
+            clearInterval(reaper);
+            terminated.resolve(Promise.all(workers.map((w) => w.terminate())));
+        }
+    }
+
+    function cancelled(entry) {
+        const cancellation = entry.options && entry.options.cancellation;
+        return cancellation ? cancellation.isCancelled() : false;
+    }
+
+    function cancelError() {
+        const error = new Error("Job has been cancelled");
+        error.code = 'ECANCELED';
+        return error;
+    }
+
+    /* replaces workers stuck in cancelled guest language code */
+    function reap() {
+        workers.forEach((w, i) => {
+            var abandoned = false;
+            for (const entry of w.running) {
+                abandoned = abandoned || (cancelled(entry) && entry.options.eval !== undefined);
+            }
+            if (!abandoned) {
+                return;
+            }
+            workers[i] = spawn();
+            const retry = [];
+            for (const entry of w.running) {
+                if (cancelled(entry)) {
+                    entry.reject(cancelError());
+                } else {
+                    retry.push(entry);
+                }
+            }
+            w.running.clear();
+            w.abort(cancelError());
+            if (retry.length > 0) {
+                queue.unshift(retry);
+                queued += retry.length;
+            }
         });
+        pump();
+    }
+    const reaper = setInterval(reap, cancelInterval);
+    reaper.unref();
+
+    function enqueue(batch) {
+        queue.push(batch);
+        queued += batch.length;
+    }
+
+    function flush() {
+        if (gathering !== null) {
+            enqueue(gathering);
+            gathering = null;
+            pump();
+        }
+    }
+
+    function job(target, options) {
+        var entry = null;
+        const promise = new Promise((resolve, reject) => entry = {target, options, resolve, reject, queued: nanoTime()});
+        entry.promise = promise;
+        return entry;
+    }
+
+    function closed() {
+        return Promise.reject(new Error("Worker pool has been terminated"));
+    }
+
+    function full() {
+        const error = new Error("Worker pool queue is full");
+        error.code = 'EQUEUEFULL';
+        return Promise.reject(error);
+    }
+
+    function admits(count) {
+        return queued + (gathering === null ? 0 : gathering.length) + count <= maxQueue;
+    }
+
+    this.size = size;
+    this.workers = workers;
+    this.submit = function(target, options) {
+        if (terminated !== null) {
+            return closed();
+        }
+        if (!admits(1)) {
+            return full();
+        }
+        const entry = job(target, options);
+        if (!coalesce) {
+            enqueue([ entry ]);
+            pump();
+        } else {
+            if (gathering === null) {
+                gathering = [];
+                process.nextTick(flush);
+            }
+            gathering.push(entry);
+            if (gathering.length >= maxBatch) {
+                flush();
+            }
+        }
+        return entry.promise;
     };
+    /* Runs target with each of the options on a single worker, returns a promise for each of them. */
+    this.submitBatch = function(target, optionsList) {
+        if (terminated !== null) {
+            return optionsList.map(closed);
+        }
+        if (!admits(optionsList.length)) {
+            return optionsList.map(full);
+        }
+        const batch = optionsList.map((options) => job(target, options));
+        enqueue(batch);
+        pump();
+        return batch.map((entry) => entry.promise);
+    };
+    /* Invokes all targets on a single worker, returns a promise for each of them. */
+    this.submitAll = function(targets) {
+        if (terminated !== null) {
+            return targets.map(closed);
+        }
+        if (!admits(targets.length)) {
+            return targets.map(full);
+        }
+        const batch = targets.map((target) => job(target, undefined));
+        enqueue(batch);
+        pump();
+        return batch.map((entry) => entry.promise);
+    };
+    /* Runs the job once on every worker, e.g. to evaluate sources ahead. */
+    this.broadcast = function(target, options) {
+        if (terminated !== null) {
+            return closed();
+        }
+        broadcasts.push({target, options});
+        return Promise.all(workers.map((w) => broadcastTo(w, target, options)));
+    };
+    this.queueDepth = function() {
+        return queued;
+    };
+    this.pending = function() {
+        return workers.map((w) => w.pending);
+    };
+    /* Stops accepting new jobs, finishes the queued ones and then stops all threads. */
     this.terminate = function() {
-        this.worker.terminate();
+        if (terminated === null) {
+            terminated = {};
+            terminated.promise = new Promise((resolve) => terminated.resolve = resolve);
+            flush();
+            pump();
+        }
+        return terminated.promise;
     };
 }
 
 module.exports = {
-    NodePolyglotWorker : NodePolyglotWorker
+    NodePolyglotWorker : NodePolyglotWorker,
+    NodePolyglotWorkerPool : NodePolyglotWorkerPool
 }
@@ -0,0 +1,141 @@
+#*
+ * Copyright (c) 2017 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or data
+ * (collectively the "Software"), free of charge and under any and all copyright
+ * rights in the Software, and any and all patent rights owned or freely
+ * licensable by each licensor hereunder covering either (i) the unmodified
+ * Software as contributed to or provided by such licensor, or (ii) the Larger
+ * Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ *
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ *
+ * The above copyright notice and either this complete permission notice or at a
+ * minimum a reference to the UPL must be included in all copies or substantial
+ * portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *#
+
+/* Routing table built once and shared by all requests. Paths are kept
+ * in a trie, so the URL is matched in a single pass over its characters
+ * and the numeric path parameter is parsed in place.
+ */
+function Router() {
+    function Node() {
+        this.children = new Map();
+        this.exact = null;
+        this.prefix = null;
+        this.range = null;
+    }
+    const root = new Node();
+
+    function node(path) {
+        var n = root;
+        for (var i = 0; i < path.length; i++) {
+            const ch = path.charCodeAt(i);
+            var next = n.children.get(ch);
+            if (!next) {
+                next = new Node();
+                n.children.set(ch, next);
+            }
+            n = next;
+        }
+        return n;
+    }
+
+    function parseParam(url, from, length) {
+        if (from >= length) {
+            return -1;
+        }
+        var value = 0;
+        for (var i = from; i < length; i++) {
+            const digit = url.charCodeAt(i) - 48;
+            if (digit < 0 || digit > 9) {
+                return -1;
+            }
+            value = value * 10 + digit;
+        }
+        return value <= 0x7fffffff ? value : -1;
+    }
+
+    /* registers handler(-1, request, response) for the exact path */
+    this.exact = function(path, handler) {
+        node(path).exact = handler;
+        return this;
+    };
+    /* registers handler(n, request, response) for prefix followed by a number */
+    this.prefix = function(prefix, handler) {
+        node(prefix).prefix = handler;
+        return this;
+    };
+    /* registers handler(from, to, request, response) for prefix followed by from..to */
+    this.range = function(prefix, handler) {
+        node(prefix).range = handler;
+        return this;
+    };
+    /* calls the matching handler, returns false if there is none */
+    this.dispatch = function(url, request, response) {
+        var n = root;
+        var prefixNode = null;
+        var paramStart = -1;
+        for (var i = 0; n; i++) {
+            if (n.prefix !== null || n.range !== null) {
+                prefixNode = n;
+                paramStart = i;
+            }
+            if (i === url.length) {
+                if (n.exact !== null) {
+                    n.exact(-1, request, response);
+                    return true;
+                }
+                break;
+            }
+            n = n.children.get(url.charCodeAt(i));
+        }
+        if (prefixNode === null) {
+            return false;
+        }
+        const dots = url.indexOf("..", paramStart);
+        if (dots === -1) {
+            const param = parseParam(url, paramStart, url.length);
+            if (param < 0 || prefixNode.prefix === null) {
+                return false;
+            }
+            prefixNode.prefix(param, request, response);
+            return true;
+        }
+        const from = parseParam(url, paramStart, dots);
+        const to = parseParam(url, dots + 2, url.length);
+        if (from < 0 || to < from || prefixNode.range === null) {
+            return false;
+        }
+        prefixNode.range(from, to, request, response);
+        return true;
+    };
+}
+
+module.exports = {
+    Router : Router
+}
@@ -0,0 +1,126 @@
+#*
+ * Copyright (c) 2017 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or data
+ * (collectively the "Software"), free of charge and under any and all copyright
+ * rights in the Software, and any and all patent rights owned or freely
+ * licensable by each licensor hereunder covering either (i) the unmodified
+ * Software as contributed to or provided by such licensor, or (ii) the Larger
+ * Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ *
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ *
+ * The above copyright notice and either this complete permission notice or at a
+ * minimum a reference to the UPL must be included in all copies or substantial
+ * portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *#
+
+package ${package};
+
+import java.util.HashMap;
+import java.util.Map;
+import org.graalvm.polyglot.Context;
+import org.graalvm.polyglot.Source;
+import org.graalvm.polyglot.Value;
+
+/** Entry point of the native executable built by {@code mvn -Pnative package}.
+ * A native image cannot load the project classes into the node.js process,
+ * hence it embeds the guest languages in a polyglot {@link Context} and serves
+ * HTTP by the Java {@link NioServer}. Guest languages are entered only from
+ * the main thread, which takes the role of the node.js event loop.
+ * <pre>
+ * $ mvn -Pnative package
+ * $ target/${artifactId}
+ * </pre>
+ */
+public final class NativeLauncher {
+    private NativeLauncher() {
+    }
+
+    public static void main(String... args) throws InterruptedException {
+        final Context context = Context.newBuilder().allowAllAccess(true).build();
+        final ContextGlobal global = new ContextGlobal(context);
+        final Services services = new Services(null, global, NioServer.worker());
+        services.postInit(null, true);
+        while (!global.quit) {
+            services.runEventLoopTasks();
+            Thread.sleep(1);
+        }
+        // let the selector thread send the response to /quit
+        Thread.sleep(100);
+        context.close();
+        System.exit(0);
+    }
+
+    static final class ContextGlobal implements Services.Global, Services.Polyglot {
+        private final Context context;
+        private final Map<GuestSource, Value> evaluated = new HashMap<>();
+        volatile boolean quit;
+
+        ContextGlobal(Context context) {
+            this.context = context;
+        }
+
+        @Override
+        public Object evalSource(GuestSource source) {
+            return evaluated.computeIfAbsent(source, (s) -> {
+                String language = Source.findLanguage(s.mimeType());
+                return context.eval(Source.newBuilder(language, s.code(), s.name()).mimeType(s.mimeType()).cached(true).buildLiteral());
+            });
+        }
+
+        @Override
+        public Services.Polyglot Polyglot() {
+            return this;
+        }
+
+        @Override
+        public Object eval(String mimeType, String code) {
+            String language = Source.findLanguage(mimeType);
+            return context.eval(Source.newBuilder(language, code, "native").mimeType(mimeType).buildLiteral());
+        }
+
+        @Override
+        public void export(String name, Object obj) {
+            context.getPolyglotBindings().putMember(name, obj);
+        }
+
+        @Override
+        public void quit() {
+            quit = true;
+        }
+
+        @Override
+        public Services.Computation cast(Object value, Services.Computation prototype) {
+            return ((Value) value).as(Services.Computation.class);
+        }
+
+        @Override
+        public Services.BatchComputation cast(Object value, Services.BatchComputation prototype) {
+            return ((Value) value).as(Services.BatchComputation.class);
+        }
+    }
+}
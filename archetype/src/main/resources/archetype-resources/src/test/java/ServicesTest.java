@@ -39,11 +39,374 @@
  *#
 package ${package};
 
+#if ($unitTest.equals("true"))
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+#if (!$serverCode.equals("js"))
+import java.lang.reflect.Method;
+#end
+import java.net.Socket;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+#if (!$serverCode.equals("js"))
+import java.nio.file.Paths;
+#end
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+#if ($algorithmJava.equals("true"))
+import java.util.concurrent.CancellationException;
+#end
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+#if (!$serverCode.equals("js"))
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+#end
+#end
 import org.junit.Test;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 public class ServicesTest {
 #if ($unitTest.equals("true"))
+    @Test
+    public void testRouterMatchesLongestPrefix() {
+        final int[] called = { 0, 0, 0 };
+        Router router = new Router()
+            .exact("/quit", (n, in, out) -> called[0] = n)
+            .prefix("/j/", (n, in, out) -> called[1] = n)
+            .prefix("/java/", (n, in, out) -> called[2] = n);
+        assertEquals(true, router.dispatch("/quit", null, null));
+        assertEquals("Exact route has no parameter", -1, called[0]);
+        assertEquals(true, router.dispatch("/java/42", null, null));
+        assertEquals("Longest prefix wins", 42, called[2]);
+        assertEquals(true, router.dispatch("/j/7", null, null));
+        assertEquals(7, called[1]);
+        assertEquals("Not a number", false, router.dispatch("/java/x", null, null));
+        assertEquals("Missing number", false, router.dispatch("/java/", null, null));
+        assertEquals("Overflow", false, router.dispatch("/java/99999999999", null, null));
+        assertEquals("Unknown", false, router.dispatch("/quit/now", null, null));
+    }
+
+    @Test
+    public void testRouterMatchesRange() {
+        final int[] called = { -1, -1, -1 };
+        Router router = new Router()
+            .prefix("/java/", (n, in, out) -> called[0] = n)
+            .range("/java/", (from, to, in, out) -> {
+                called[1] = from;
+                called[2] = to;
+            });
+        assertEquals(true, router.dispatch("/java/1..5000", null, null));
+        assertEquals(1, called[1]);
+        assertEquals(5000, called[2]);
+        assertEquals("Not a range", -1, called[0]);
+        assertEquals(true, router.dispatch("/java/7..7", null, null));
+        assertEquals(7, called[2]);
+        assertEquals("Descending", false, router.dispatch("/java/5..1", null, null));
+        assertEquals("Open", false, router.dispatch("/java/5..", null, null));
+        assertEquals("Not a number", false, router.dispatch("/java/1..x", null, null));
+        assertEquals("No range route", false, new Router().prefix("/js/", (n, in, out) -> { }).dispatch("/js/1..2", null, null));
+    }
+
+    @Test
+    public void testSubmitAllKeepsOrderOfResults() {
+        Services.Worker worker = new Services.Worker() {
+            @Override
+            public <T> void submit(Supplier<T> background, Consumer<T> finish) {
+                finish.accept(background.get());
+            }
+        };
+        List<Supplier<Integer>> work = Arrays.asList(() -> 1, () -> 2, () -> 3);
+        List<List<Integer>> finished = new ArrayList<>();
+        worker.submitAll(work, finished::add);
+        assertEquals("Finished once", 1, finished.size());
+        assertEquals(Arrays.asList(1, 2, 3), finished.get(0));
+    }
+
+    @Test
+    public void testFailedComputationStillFinishes() throws InterruptedException {
+        final CountDownLatch finished = new CountDownLatch(1);
+        final Object[] result = { "none" };
+        NioServer.worker().submit(() -> {
+            throw new IllegalStateException("Expected failure");
+        }, (value) -> {
+            result[0] = value;
+            finished.countDown();
+        });
+        assertTrue("Finished", finished.await(10, TimeUnit.SECONDS));
+        assertNull("No result", result[0]);
+    }
+
+    @Test
+    public void testClientClosingDuringComputationCancelsIt() throws Exception {
+        final CountDownLatch cancelled = new CountDownLatch(1);
+        NioServer server = new NioServer(0, (in, out) -> {
+            final Cancellation cancellation = Cancellation.never();
+            out.on("close", () -> {
+                if (!out.writableFinished()) {
+                    cancellation.cancel();
+                }
+            });
+            new Thread(() -> {
+                while (!cancellation.isCancelled()) {
+                    try {
+                        Thread.sleep(10);
+                    } catch (InterruptedException ex) {
+                        return;
+                    }
+                }
+                cancelled.countDown();
+            }).start();
+        });
+        server.start();
+        try (Socket socket = new Socket("localhost", server.port())) {
+            socket.getOutputStream().write("GET /java/100000 HTTP/1.1\r\n\r\n".getBytes(StandardCharsets.ISO_8859_1));
+        }
+        assertTrue("Computation cancelled", cancelled.await(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testHalfClosedConnectionGetsAllResponses() throws Exception {
+        NioServer server = new NioServer(0, (in, out) -> new Thread(() -> {
+            try {
+                Thread.sleep(300);
+            } catch (InterruptedException ex) {
+                return;
+            }
+            out.end("Answer " + in.url() + "\n");
+        }).start());
+        server.start();
+        List<String> answers = new ArrayList<>();
+        try (Socket socket = new Socket("localhost", server.port())) {
+            socket.setSoTimeout(10000);
+            socket.getOutputStream().write("GET /a HTTP/1.1\r\n\r\nGET /b HTTP/1.1\r\n\r\n".getBytes(StandardCharsets.ISO_8859_1));
+            socket.shutdownOutput();
+            BufferedReader r = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+            for (;;) {
+                String line = r.readLine();
+                if (line == null) {
+                    break;
+                }
+                if (line.startsWith("Answer")) {
+                    answers.add(line);
+                }
+            }
+        }
+        assertEquals(Arrays.asList("Answer /a", "Answer /b"), answers);
+    }
+
+    @Test
+    public void testHistogramQuantilesWithinPrecision() {
+        Metrics metrics = new Metrics();
+        Metrics.Histogram h = metrics.histogram("java", "compute");
+        for (long i = 1; i <= 100000; i++) {
+            h.record(i * 1000);
+        }
+        assertEquals(100000, h.count());
+        assertEquals(50000000.0, h.valueAt(0.5), 50000000.0 * 0.02);
+        assertEquals(99000000.0, h.valueAt(0.99), 99000000.0 * 0.02);
+        for (int i = 0; i < 1200; i++) {
+            assertEquals("Bucket " + i, i, Metrics.Histogram.index(Metrics.Histogram.highestValue(i)));
+        }
+        String text = metrics.toPrometheus();
+        assertTrue(text, text.contains("polyglot_latency_seconds_count{language=\"java\",phase=\"compute\"} 100000\n"));
+    }
+
+    @Test
+    public void testResultCacheEvictsLeastRecentlyUsed() {
+        ResultCache cache = new ResultCache(3 * ResultCache.weightOf("x"));
+        cache.put("test", 1, "a");
+        cache.put("test", 2, "b");
+        cache.put("test", 3, "c");
+        assertEquals("a", cache.get("test", 1));
+        cache.put("test", 4, "d");
+        assertEquals("Least recently used evicted", null, cache.get("test", 2));
+        assertEquals("a", cache.get("test", 1));
+        assertEquals("Closest lower result", (Integer) 3, cache.lower("test", 4).getKey());
+        assertEquals("No higher result", null, cache.higher("test", 4));
+        assertEquals("Hits", 2, cache.hits());
+        assertEquals("Misses", 1, cache.misses());
+        assertEquals("Evictions", 1, cache.evictions());
+    }
+
+    @Test
+    public void testAdmissionRefusesOverLimits() {
+        Admission admission = new Admission(4, 2, 1, Admission.cost(1000), 2).limit("ruby", 1);
+        Admission.Permit expensive = admission.tryAcquire("java", 5000);
+        assertTrue("Expensive job admitted", expensive != null);
+        assertEquals("Only one expensive job", null, admission.tryAcquire("js", 1000));
+        Admission.Permit ruby = admission.tryAcquire("ruby", 10);
+        assertTrue("Cheap job admitted", ruby != null);
+        assertEquals("Route limit", null, admission.tryAcquire("ruby", 10));
+        assertTrue(admission.tryAcquire("java", 10) != null);
+        assertEquals("Route limit", null, admission.tryAcquire("java", 10));
+        assertTrue(admission.tryAcquire("js", 10) != null);
+        assertEquals("Queue full", null, admission.tryAcquire("js", 10));
+        expensive.release();
+        expensive.release();
+        assertEquals("Released once", 3, admission.queued());
+        assertTrue("Slot free again", admission.tryAcquire("js", 2000) != null);
+        assertEquals("Rejected", 4, admission.rejected());
+    }
+
+    @Test
+    public void testCancellationExpiresAfterDeadline() throws InterruptedException {
+        Cancellation never = Cancellation.after(0);
+        Cancellation soon = Cancellation.after(1);
+        assertFalse(never.isCancelled());
+        Thread.sleep(5);
+        assertFalse("No deadline", never.isCancelled());
+        assertTrue("Deadline passed", soon.isCancelled() && soon.isExpired());
+        never.cancel();
+        assertTrue("Cancelled", never.isCancelled());
+        assertFalse("Not by deadline", never.isExpired());
+    }
+
+#if ($algorithmJava.equals("true"))
+    @Test
+    public void testEncodeDigitsAndMagnitude() {
+        BigInteger value = BigInteger.valueOf(-1234567890123L);
+        ByteBuffer digits = Services.encode(value, "digits");
+        assertTrue("Can wrap in ArrayBuffer", digits.isDirect());
+        byte[] bytes = new byte[digits.remaining()];
+        digits.get(bytes);
+        assertEquals("-1234567890123", new String(bytes, StandardCharsets.UTF_8));
+        ByteBuffer magnitude = Services.encode(value, "magnitude");
+        bytes = new byte[magnitude.remaining()];
+        magnitude.get(bytes);
+        assertEquals(value, new BigInteger(bytes));
+    }
+#end
+
+    @Test
+    public void testBatchLinesAreWrittenInChunks() {
+        final List<String> writes = new ArrayList<>();
+        final boolean[] ended = { false };
+        Services.BatchLines lines = new Services.BatchLines(new Services.ServerResponse() {
+            @Override
+            public void setHeader(String name, String value) {
+            }
+
+            @Override
+            public void writeHead(int status, String message) {
+            }
+
+            @Override
+            public void on(String event, Runnable listener) {
+            }
+
+            @Override
+            public boolean writableFinished() {
+                return ended[0];
+            }
+
+            @Override
+            public void write(String chunk) {
+                writes.add(chunk);
+            }
+
+            @Override
+            public void end() {
+                ended[0] = true;
+            }
+
+            @Override
+            public void end(String text) {
+                write(text);
+                end();
+            }
+        });
+        StringBuilder expected = new StringBuilder();
+        for (int n = 1; n <= 10000; n++) {
+            lines.accept(n, n * 2);
+            expected.append("{\"n\":").append(n).append(",\"value\":\"").append(n * 2).append("\"}\n");
+        }
+        lines.end();
+        assertTrue("Ended", ended[0]);
+        assertTrue("Few large writes: " + writes.size(), writes.size() < 50);
+        assertEquals(expected.toString(), String.join("", writes));
+    }
+
+    @Test
+    public void testResultStoreSurvivesRestart() throws IOException {
+        Path dir = Files.createTempDirectory("results");
+        try (ResultStore store = ResultStore.open(dir, 10)) {
+            store.put("ruby", 5, "120");
+            assertNull("Too small to store", store.get("ruby", 5));
+            store.put("java", 12, BigInteger.valueOf(479001600));
+            store.put("ruby", 12, "479001600");
+            store.put("java", 13, BigInteger.valueOf(6227020800L));
+        }
+        try (FileChannel log = FileChannel.open(dir.resolve("results.log"), StandardOpenOption.WRITE)) {
+            // the last result written only partially
+            log.truncate(log.size() - 1);
+        }
+        try (ResultStore store = ResultStore.open(dir, 10)) {
+            ByteBuffer text = store.get("java", 12);
+            assertTrue("Served from the mapped log", text.isDirect());
+            assertEquals("479001600", StandardCharsets.UTF_8.decode(text).toString());
+            assertEquals("479001600", StandardCharsets.UTF_8.decode(store.get("ruby", 12)).toString());
+            assertNull("Incomplete result dropped", store.get("java", 13));
+            store.put("java", 13, BigInteger.valueOf(6227020800L));
+            assertEquals("6227020800", StandardCharsets.UTF_8.decode(store.get("java", 13)).toString());
+        }
+    }
+#if (!$serverCode.equals("js"))
+
+    @Test
+    public void testNativeConfigListsInterfacesOfGuestValues() throws IOException {
+        // NativeLauncher turns guest values into the interfaces Global.cast returns
+        Set<Class<?>> proxied = new HashSet<>();
+        for (Method m : Services.Global.class.getMethods()) {
+            if (m.getName().equals("cast")) {
+                proxied.add(m.getReturnType());
+            }
+        }
+        // and the guest calls back the Services interfaces they accept
+        Set<Class<?>> reflected = new HashSet<>(proxied);
+        for (Class<?> type : proxied) {
+            for (Method m : type.getMethods()) {
+                for (Class<?> parameter : m.getParameterTypes()) {
+                    if (parameter.isInterface() && parameter.getEnclosingClass() == Services.class) {
+                        reflected.add(parameter);
+                    }
+                }
+            }
+        }
+        assertEquals("proxy-config.json", proxied, nativeConfig("proxy-config.json"));
+        assertEquals("reflect-config.json", reflected, nativeConfig("reflect-config.json"));
+    }
+
+    private static Set<Class<?>> nativeConfig(String file) throws IOException {
+        String json = new String(Files.readAllBytes(Paths.get("src", "native", "config", file)), StandardCharsets.UTF_8);
+        Set<Class<?>> listed = new HashSet<>();
+        Matcher m = Pattern.compile("\"([\\w.]+\\$\\w+)\"").matcher(json);
+        while (m.find()) {
+            try {
+                listed.add(Class.forName(m.group(1)));
+            } catch (ClassNotFoundException ex) {
+                fail(file + " lists missing " + m.group(1));
+            }
+        }
+        return listed;
+    }
+#end
+
 #if ($algorithmJava.equals("true"))
     @Test
     public void testJavaFactorial() {
@@ -51,7 +414,103 @@ public class ServicesTest {
         assertEquals("Factorial of 3", 6, n.intValue());
     }
 
+    @Test
+    public void testParallelFactorialMatchesSequential() {
+        // multiplyRange bypasses the cache, so the product tree itself is checked
+        for (int n = -1; n <= 300; n++) {
+            assertEquals("Factorial of " + n, sequentialFactorial(n), Services.multiplyRange(1, n));
+        }
+        int[] big = { 4095, 4096, 4097, 8193, 20000, 50000, 100000 };
+        for (int n : big) {
+            assertEquals("Factorial of " + n, sequentialFactorial(n), Services.multiplyRange(1, n));
+        }
+    }
+
+    @Test
+    public void testStreamedDigitsMatchToString() {
+        BigInteger[] values = {
+            BigInteger.ZERO, BigInteger.TEN.negate(), BigInteger.TEN.pow(8192),
+            BigInteger.TEN.pow(8192).subtract(BigInteger.ONE), Services.multiplyRange(1, 20000)
+        };
+        for (BigInteger value : values) {
+            final StringBuilder sb = new StringBuilder();
+            Services.writeDecimal(value, new Services.ServerResponse() {
+                @Override
+                public void setHeader(String name, String value) {
+                }
+
+                @Override
+                public void writeHead(int status, String message) {
+                }
+
+                @Override
+                public void on(String event, Runnable listener) {
+                }
+
+                @Override
+                public boolean writableFinished() {
+                    return false;
+                }
+
+                @Override
+                public void write(String chunk) {
+                    sb.append(chunk);
+                }
+
+                @Override
+                public void end() {
+                }
+
+                @Override
+                public void end(String text) {
+                }
+            });
+            assertEquals(value.toString(), sb.toString());
+        }
+    }
+
+    @Test
+    public void testCancelledFactorialStops() {
+        Cancellation cancellation = Cancellation.never();
+        cancellation.cancel();
+        try {
+            Services.multiplyRange(1, 100000, cancellation);
+            fail("Should be cancelled");
+        } catch (CancellationException ex) {
+            // OK
+        }
+    }
+
+    @Test
+    public void testBatchOfFactorialsMatchesSingleOnes() {
+        final Services services = Services.getDefault();
+        List<BigInteger> values = services.factorials(0, 300, Cancellation.never());
+        assertEquals(301, values.size());
+        for (int n = 0; n <= 300; n++) {
+            assertEquals("Factorial of " + n, sequentialFactorial(n), values.get(n));
+        }
+        values = services.factorials(4990, 5000, Cancellation.never());
+        assertEquals(sequentialFactorial(4990), values.get(0));
+        assertEquals(sequentialFactorial(5000), values.get(10));
+    }
+
+    private static BigInteger sequentialFactorial(int value) {
+        BigInteger result = BigInteger.ONE;
+        for (int i = value; i >= 1; i--) {
+            result = result.multiply(BigInteger.valueOf(i));
+        }
+        return result;
+    }
+
 #end
+    @Test
+    public void testGuestSourcesHaveUniqueNames() {
+        Set<String> names = new HashSet<>();
+        for (GuestSource source : GuestSource.all()) {
+            assertTrue("Evaluated sources are looked up by name: " + source, names.add(source.name()));
+        }
+    }
+
 #if ($algorithmRuby.equals("true"))
     @Test
     public void testRubyFactorial() {
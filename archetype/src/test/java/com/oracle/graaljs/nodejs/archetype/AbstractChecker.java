@@ -95,10 +95,9 @@ public abstract class AbstractChecker {
     }
     protected abstract String serverCode();
 
-    private Verifier createAndExec(
-        String projectName, CountDownLatch cdl, Exception[] error,
-        int[] port,
-        boolean java, boolean js, boolean ruby, boolean r, boolean unitTest
+    private File generate(
+        String projectName,
+        boolean java, boolean js, boolean ruby, boolean r, boolean unitTest, boolean benchmarks
     ) throws IOException, VerificationException {
         skipWithoutLanguage("js");
         if (ruby) skipWithoutLanguage("ruby");
@@ -129,6 +128,7 @@ public abstract class AbstractChecker {
         maven.addCliOption("-DalgorithmRuby=" + ruby);
         maven.addCliOption("-DalgorithmR=" + r);
         maven.addCliOption("-DunitTest=" + unitTest);
+        maven.addCliOption("-Dbenchmarks=" + benchmarks);
         maven.addCliOption("-DserverCode=" + serverCode());
         maven.setAutoclean(false);
 
@@ -142,6 +142,15 @@ public abstract class AbstractChecker {
         assertTrue("pom.xml created", pom.isFile());
         File nbactions = new File(projectDir, "nbactions.xml");
         assertTrue("nbactions.xml created", nbactions.isFile());
+        return projectDir;
+    }
+
+    private Verifier createAndExec(
+        String projectName, CountDownLatch cdl, Exception[] error,
+        int[] port,
+        boolean java, boolean js, boolean ruby, boolean r, boolean unitTest, boolean benchmarks
+    ) throws IOException, VerificationException {
+        File projectDir = generate(projectName, java, js, ruby, r, unitTest, benchmarks);
 
         Verifier mvnProject = new Maven(projectDir.getPath());
         Executors.newSingleThreadExecutor().submit(() -> {
@@ -185,13 +194,17 @@ public abstract class AbstractChecker {
         CountDownLatch cdl = new CountDownLatch(1);
 
 
-        Verifier mvnProject = createAndExec("allArchetypes", cdl, error, prefix, true, true, true, true, true);
+        Verifier mvnProject = createAndExec("allArchetypes", cdl, error, prefix, true, true, true, true, true, true);
+
+        File jmh = new File(new File(mvnProject.getBasedir(), "src"), "jmh");
+        assertTrue("Benchmarks generated: " + jmh, jmh.isDirectory());
 
         assertUrl(prefix, "/HelloMaven!", "Received: /HelloMaven!\n", cdl, mvnProject);
         assertUrl(prefix, "/java/5", "120\n", cdl, mvnProject);
         assertUrl(prefix, "/js/6", "720\n", cdl, mvnProject);
         assertUrl(prefix, "/ruby/4", "24\n", cdl, mvnProject);
         assertUrl(prefix, "/r/10", "3628800", true, cdl, mvnProject);
+        assertUrl(prefix, "/java/3..5", "{\"n\":3,\"value\":\"6\"}\n{\"n\":4,\"value\":\"24\"}\n{\"n\":5,\"value\":\"120\"}\n", cdl, mvnProject);
 
         assertQuit(cdl, error, prefix, mvnProject);
     }
@@ -202,10 +215,13 @@ public abstract class AbstractChecker {
         int[] prefix = { 0 };
         CountDownLatch cdl = new CountDownLatch(1);
 
-        Verifier mvnProject = createAndExec("noUnitTest", cdl, error, prefix, true, true, true, true, false);
+        Verifier mvnProject = createAndExec("noUnitTest", cdl, error, prefix, true, true, true, true, false, false);
 
         File pom = new File(mvnProject.getBasedir(), "pom.xml");
         assertNoText("surefire", pom);
+        assertNoText("jmh", pom);
+        File jmh = new File(new File(mvnProject.getBasedir(), "src"), "jmh");
+        assertTrue("No benchmarks generated: " + jmh, !jmh.exists());
 
         assertUrl(prefix, "/HelloMaven!", "Received: /HelloMaven!\n", cdl, mvnProject);
         assertUrl(prefix, "/java/5", "120\n", cdl, mvnProject);
@@ -226,7 +242,7 @@ public abstract class AbstractChecker {
         int[] prefix = { 0 };
         CountDownLatch cdl = new CountDownLatch(1);
 
-        Verifier mvnProject = createAndExec("justJava", cdl, error, prefix, true, false, false, false, true);
+        Verifier mvnProject = createAndExec("justJava", cdl, error, prefix, true, false, false, false, true, false);
 
         assignNoTextInServices("Algorithm js()", mvnProject);
         assignNoTextInServices("Algorithm ruby()", mvnProject);
@@ -247,7 +263,7 @@ public abstract class AbstractChecker {
         int[] prefix = { 0 };
         CountDownLatch cdl = new CountDownLatch(1);
 
-        Verifier mvnProject = createAndExec("justJavaScript", cdl, error, prefix, false, true, false, false, true);
+        Verifier mvnProject = createAndExec("justJavaScript", cdl, error, prefix, false, true, false, false, true, false);
 
         assignNoTextInServices("JavaFactorial", mvnProject);
         assignNoTextInServices("Algorithm ruby", mvnProject);
@@ -267,7 +283,7 @@ public abstract class AbstractChecker {
         int[] prefix = { 0 };
         CountDownLatch cdl = new CountDownLatch(1);
 
-        Verifier mvnProject = createAndExec("justRuby", cdl, error, prefix, false, false, true, false, true);
+        Verifier mvnProject = createAndExec("justRuby", cdl, error, prefix, false, false, true, false, true, false);
 
         assignNoTextInServices("JavaFactorial", mvnProject);
         assignNoTextInServices("Algorithm js()", mvnProject);
@@ -288,7 +304,7 @@ public abstract class AbstractChecker {
         int[] prefix = { 0 };
         CountDownLatch cdl = new CountDownLatch(1);
 
-        Verifier mvnProject = createAndExec("justR", cdl, error, prefix, false, false, false, true, true);
+        Verifier mvnProject = createAndExec("justR", cdl, error, prefix, false, false, false, true, true, false);
 
         assignNoTextInServices("JavaFactorial", mvnProject);
         assignNoTextInServices("Algorithm js", mvnProject);
@@ -309,7 +325,7 @@ public abstract class AbstractChecker {
         int[] prefix = { 0 };
         CountDownLatch cdl = new CountDownLatch(1);
 
-        Verifier mvnProject = createAndExec("empty", cdl, error, prefix, false, false, false, false, true);
+        Verifier mvnProject = createAndExec("empty", cdl, error, prefix, false, false, false, false, true, false);
 
         assignNoTextInServices("JavaFactorial", mvnProject);
         assignNoTextInServices("BigInteger", mvnProject);
@@ -328,6 +344,65 @@ public abstract class AbstractChecker {
         assertQuit(cdl, error, prefix, mvnProject);
     }
 
+    @Test
+    public void nativeImageAnswersSooner() throws Exception {
+        assumeTrue("Only Java server can run as native image", "java".equals(serverCode()));
+        File bin = new File(System.getProperty("java.home"), "bin");
+        assumeTrue("native-image tool is installed", new File(bin, "native-image").exists());
+
+        File projectDir = generate("nativeImage", true, true, false, false, false, false);
+        int[] port = { 0 };
+        assignFreePort(projectDir, port);
+        Verifier mvnProject = new Maven(projectDir.getPath());
+        mvnProject.addCliOption("-Pnative");
+        mvnProject.executeGoal("package");
+        mvnProject.verifyErrorFreeLog();
+
+        File target = new File(projectDir, "target");
+        long jvm = timeToFirstResponse(port[0], projectDir, "jvm",
+            new File(bin, "node").getPath(), "--experimental-worker", "--polyglot", "--jvm",
+            "--jvm.classpath", new File(target, "classes").getPath(),
+            new File(projectDir, "src/main/js/launcher.js").getPath()
+        );
+        long nativeImage = timeToFirstResponse(port[0], projectDir, "native",
+            new File(target, projectDir.getName()).getPath()
+        );
+        CONSOLE.log(Level.INFO, "First response in JVM mode after {0} ms, in native mode after {1} ms", new Object[]{jvm, nativeImage});
+        assertTrue("Native image (" + nativeImage + " ms) answers sooner than JVM (" + jvm + " ms)", nativeImage < jvm);
+    }
+
+    /** Starts the server without warm-up and measures milliseconds till
+     * it computes the first factorial. Then asks the server to quit.
+     */
+    private static long timeToFirstResponse(int port, File projectDir, String mode, String... command) throws Exception {
+        ProcessBuilder pb = new ProcessBuilder(command).directory(projectDir).redirectErrorStream(true);
+        pb.redirectOutput(new File(projectDir, mode + ".log"));
+        pb.environment().put("HTTP_SERVER", "nio");
+        pb.environment().put("POLYGLOT_WARMUP", "0");
+        URL factorial = new URL("http", "localhost", port, "/java/5");
+        final long started = System.nanoTime();
+        Process server = pb.start();
+        try {
+            for (;;) {
+                assertTrue("Server in " + mode + " mode is running", server.isAlive());
+                try (BufferedReader b = openReader(factorial)) {
+                    assertEquals("120", b.readLine());
+                    break;
+                } catch (ConnectException ex) {
+                    Thread.sleep(10);
+                }
+            }
+            final long ms = (System.nanoTime() - started) / 1000000;
+            try (BufferedReader b = openReader(new URL("http", "localhost", port, "/quit"))) {
+                assertEquals("Quiting...", b.readLine());
+            }
+            assertTrue("Server in " + mode + " mode quits", server.waitFor(30, TimeUnit.SECONDS));
+            return ms;
+        } finally {
+            server.destroyForcibly();
+        }
+    }
+
     private static void assertQuit(CountDownLatch cdl, VerificationException[] error, int[] prefix, Verifier mvnProject)
     throws IOException, VerificationException, InterruptedException {
         assertUrl(prefix, "/quit", "Quiting...\n", cdl, mvnProject);
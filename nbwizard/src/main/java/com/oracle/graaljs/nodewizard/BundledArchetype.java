@@ -0,0 +1,200 @@
+/**
+ * Copyright (c) 2017 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or data
+ * (collectively the "Software"), free of charge and under any and all copyright
+ * rights in the Software, and any and all patent rights owned or freely
+ * licensable by each licensor hereunder covering either (i) the unmodified
+ * Software as contributed to or provided by such licensor, or (ii) the Larger
+ * Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ *
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ *
+ * The above copyright notice and either this complete permission notice or at a
+ * minimum a reference to the UPL must be included in all copies or substantial
+ * portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.oracle.graaljs.nodewizard;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Properties;
+import java.util.jar.JarInputStream;
+import java.util.zip.ZipEntry;
+
+/** The archetype bundled with this module. Its bytes, version and
+ * {@code pom.xml} are read once, when first needed. Installing it into
+ * a local Maven repository is then just writing them down.
+ */
+final class BundledArchetype {
+    static final String JAR_NAME = "nodejs-archetype.jar";
+    private static BundledArchetype bundled;
+
+    private final String version;
+    private final byte[] jar;
+    private final byte[] pom;
+    private final String sha1;
+
+    private BundledArchetype(String version, byte[] jar, byte[] pom, String sha1) {
+        this.version = version;
+        this.jar = jar;
+        this.pom = pom;
+        this.sha1 = sha1;
+    }
+
+    static synchronized BundledArchetype getDefault() throws IOException {
+        if (bundled == null) {
+            InputStream is = BundledArchetype.class.getResourceAsStream(JAR_NAME);
+            if (is == null) {
+                throw new FileNotFoundException("Cannot find bundled archetype");
+            }
+            try {
+                bundled = read(is);
+            } finally {
+                is.close();
+            }
+        }
+        return bundled;
+    }
+
+    static BundledArchetype read(InputStream is) throws IOException {
+        final byte[] jar = readAll(is);
+        String version = null;
+        byte[] pom = null;
+        try (JarInputStream in = new JarInputStream(new ByteArrayInputStream(jar))) {
+            for (;;) {
+                ZipEntry entry = in.getNextEntry();
+                if (entry == null) {
+                    break;
+                }
+                if (version == null && entry.getName().endsWith("pom.properties")) {
+                    Properties p = new Properties();
+                    p.load(in);
+                    version = p.getProperty("version");
+                } else if (pom == null && entry.getName().endsWith("pom.xml")) {
+                    pom = readAll(in);
+                }
+                in.closeEntry();
+            }
+        }
+        if (version == null) {
+            throw new FileNotFoundException("pom.properties not found");
+        }
+        if (pom == null) {
+            throw new FileNotFoundException("pom.xml not found");
+        }
+        return new BundledArchetype(version, jar, pom, sha1(jar));
+    }
+
+    String getVersion() {
+        return version;
+    }
+
+    /** Makes sure the archetype is present in given local repository.
+     * Files already in the repository are never overwritten, they may be
+     * the developer's own build of the archetype. Only a missing jar or
+     * pom is written. The jar is checked against the bundled checksum as
+     * it is written.
+     *
+     * @param m2Repo the {@code ~/.m2/repository} directory
+     * @return {@code true} if the archetype is installed
+     */
+    boolean install(File m2Repo) throws IOException {
+        File dir = new File(new File(new File(new File(
+            new File(m2Repo, "com"), "oracle"), "graal-js"), "nodejs-archetype"),
+            version);
+        final String baseName = "nodejs-archetype-" + version;
+        File archetype = new File(dir, baseName + ".jar");
+        File pomFile = new File(dir, baseName + ".pom");
+        if (archetype.isFile() && pomFile.isFile()) {
+            return true;
+        }
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            return false;
+        }
+        if (!archetype.isFile()) {
+            writeChecked(archetype, jar, sha1);
+        }
+        if (!pomFile.isFile()) {
+            Files.write(pomFile.toPath(), pom);
+        }
+        return true;
+    }
+
+    /** Writes the data and verifies the file has the expected checksum.
+     * The file is created under a temporary name and renamed only when
+     * complete, so it is never seen half written.
+     */
+    private static void writeChecked(File target, byte[] data, String expectedSha1) throws IOException {
+        Path tmp = Files.createTempFile(target.getParentFile().toPath(), target.getName(), ".tmp");
+        try {
+            Files.write(tmp, data);
+            final String written = sha1(Files.readAllBytes(tmp));
+            if (!expectedSha1.equals(written)) {
+                throw new IOException("Checksum of " + target + " is " + written + " instead of " + expectedSha1);
+            }
+            Files.move(tmp, target.toPath());
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    private static byte[] readAll(InputStream is) throws IOException {
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        byte[] arr = new byte[4096];
+        for (;;) {
+            int len = is.read(arr);
+            if (len == -1) {
+                break;
+            }
+            os.write(arr, 0, len);
+        }
+        return os.toByteArray();
+    }
+
+    private static String sha1(byte[] data) throws IOException {
+        final MessageDigest md;
+        try {
+            md = MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IOException(ex);
+        }
+        StringBuilder sb = new StringBuilder();
+        for (byte b : md.digest(data)) {
+            sb.append(String.format("%02x", b));
+        }
+        return sb.toString();
+    }
+}
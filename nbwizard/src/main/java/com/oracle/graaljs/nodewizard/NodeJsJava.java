@@ -45,24 +45,18 @@ import java.awt.EventQueue;
 import java.io.ByteArrayInputStream;
 import java.io.Closeable;
 import java.io.File;
-import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.OutputStream;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.List;
-import java.util.Properties;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
 import java.util.function.Consumer;
 import java.util.function.Supplier;
-import java.util.jar.JarInputStream;
-import java.util.zip.ZipEntry;
 import net.java.html.BrwsrCtx;
 import net.java.html.boot.script.Scripts;
 import net.java.html.json.ComputedProperty;
@@ -93,17 +87,19 @@ import org.openide.util.NbBundle.Messages;
     @Property(name = "algRuby", type = boolean.class),
     @Property(name = "algR", type = boolean.class),
     @Property(name = "unitTesting", type = boolean.class),
+    @Property(name = "benchmarking", type = boolean.class),
+    @Property(name = "warmupCalls", type = int.class),
     @Property(name = "graalvmPath", type = String.class),
     @Property(name = "graalvmCheck", type = Status.class),
     @Property(name = "archetypeVersions", type = String.class, array = true),
     @Property(name = "archetypeVersion", type = String.class),
-    @Property(name = "missingLanguage", type = String.class),
+    @Property(name = "missingLanguages", type = String.class, array = true),
+    @Property(name = "installs", type = LanguageInstall.class, array = true),
     @Property(name = "working", type = boolean.class),
     @Property(name = "output", type = boolean.class),
-    @Property(name = "processOutput", type = String.class),
+    @Property(name = "processOutput", type = String.class, array = true),
 })
 public class NodeJsJava {
-    private static final String ARCH_JAR_NAME = "nodejs-archetype.jar";
     private ScheduledExecutorService background;
 
     @TemplateRegistration(
@@ -120,6 +116,7 @@ public class NodeJsJava {
         NodeJsJavaModel data = new NodeJsJavaModel();
         findGraalVM(data);
         data.setUnitTesting(true);
+        data.setWarmupCalls(1000);
         data.setServerCode(ServerCode.js);
         String localVersion;
         try {
@@ -216,72 +213,131 @@ public class NodeJsJava {
 
     @Function
     void installLanguage(NodeJsJavaModel model) {
-        final String lang = model.getMissingLanguage();
-        if (lang == null) {
+        final List<String> languages = new ArrayList<>(model.getMissingLanguages());
+        if (languages.isEmpty()) {
             return;
         }
         background().execute(() -> {
             try {
-                File gu = new File(new File(new File(model.getGraalvmPath()), "bin"), "gu");
-                if (!gu.isFile()) {
-                    model.setGraalvmCheck(new Status().withLauncher(gu + " not found"));
-                }
-                ProcessBuilder b = new ProcessBuilder(
-                        gu.getPath(),
-                        "install", lang);
-                b.redirectErrorStream(true);
-                model.setOutput(true);
-                model.setProcessOutput("Running " + gu.getPath() + " install " + lang + "\n");
-                Process p = b.start();
-                process = p;
-                final Appendable output = fillProcessOutput(model);
-                int code;
-                try {
-                    drainProcessStream(p.getInputStream(), output, process);
-                    code = p.waitFor();
-                } finally {
-                    process = null;
-                }
-                if (code != 0) {
-                    output.append("\n\n" + gu + " install " + lang + " finished with code " + code);
-                } else {
-                    model.setMissingLanguage(null);
-                    checkGraalVMNow(model);
-                    selectLanguage(model, lang);
-                    model.setOutput(false);
-                }
+                installLanguages(model, languages);
             } catch (IOException | InterruptedException ex) {
                 Exceptions.printStackTrace(ex);
             }
         });
     }
 
-    private static Appendable fillProcessOutput(NodeJsJavaModel model) {
-        return new Appendable() {
-            @Override
-            public Appendable append(CharSequence csq) throws IOException {
-                return append(csq, 0, csq.length());
+    /** Installs all the languages by a single gu run. It resolves the
+     * catalog once and then downloads and installs one component after
+     * another. Separate gu runs cannot overlap, as they all rewrite the same
+     * GraalVM. Then the GraalVM is probed again, which only checks the
+     * languages whose installation has changed.
+     */
+    private void installLanguages(NodeJsJavaModel model, List<String> languages) throws IOException, InterruptedException {
+        File gu = new File(new File(new File(model.getGraalvmPath()), "bin"), "gu");
+        if (!gu.isFile()) {
+            model.setGraalvmCheck(new Status().withLauncher(gu + " not found"));
+            return;
+        }
+        final List<LanguageInstall> installs = model.getInstalls();
+        installs.clear();
+        for (String id : languages) {
+            installs.add(new LanguageInstall(id, "waiting"));
+        }
+        List<String> command = new ArrayList<>();
+        command.add(gu.getPath());
+        command.add("install");
+        command.addAll(languages);
+        ProcessBuilder b = new ProcessBuilder(command);
+        b.redirectErrorStream(true);
+        model.setOutput(true);
+        final ProcessLog output = new ProcessLog(model.getProcessOutput(), ProcessLog.MAX_LINES);
+        output.clear();
+        output.append("Running " + String.join(" ", command) + "\n");
+        Process p = b.start();
+        process = p;
+        int code;
+        try {
+            code = ProcessPump.start(p, new InstallProgress(output, installs)).waitFor();
+        } finally {
+            process = null;
+        }
+        if (code != 0) {
+            output.append("\n\n" + gu + " install finished with code " + code);
+        }
+        checkGraalVMNow(model);
+        final Status status = model.getGraalvmCheck();
+        boolean all = true;
+        for (LanguageInstall install : installs) {
+            final String id = install.getLanguage();
+            if (status != null && ProbeCache.isInstalled(status, id)) {
+                install.setState("installed");
+                model.getMissingLanguages().remove(id);
+                selectLanguage(model, id);
+            } else {
+                install.setState("failed");
+                all = false;
             }
+        }
+        if (all) {
+            model.setOutput(false);
+        }
+    }
+
+    @Model(className = "LanguageInstall", properties = {
+        @Property(name = "language", type = String.class),
+        @Property(name = "state", type = String.class),
+    })
+    static class LanguageInstallCntrl {
+    }
+
+    /** Follows gu output line by line and marks the language a line talks
+     * about as being downloaded or installed.
+     */
+    private static final class InstallProgress implements Appendable {
+        private final Appendable delegate;
+        private final List<LanguageInstall> installs;
+        private final StringBuilder line = new StringBuilder();
+
+        InstallProgress(Appendable delegate, List<LanguageInstall> installs) {
+            this.delegate = delegate;
+            this.installs = installs;
+        }
 
-            @Override
-            public Appendable append(CharSequence csq, int start, int end) throws IOException {
-                String text = model.getProcessOutput();
-                final CharSequence newText = csq.subSequence(start, end);
-                int backspaceCount = 0;
-                while (backspaceCount < newText.length() && newText.charAt(backspaceCount) == '\b') {
-                    backspaceCount++;
+        @Override
+        public Appendable append(CharSequence csq) throws IOException {
+            return append(csq, 0, csq.length());
+        }
+
+        @Override
+        public Appendable append(CharSequence csq, int start, int end) throws IOException {
+            delegate.append(csq, start, end);
+            for (int i = start; i < end; i++) {
+                char ch = csq.charAt(i);
+                if (ch == '\n' || ch == '\r') {
+                    lineCompleted(line.toString());
+                    line.setLength(0);
+                } else {
+                    line.append(ch);
                 }
-                text = text.substring(0, text.length() - backspaceCount);
-                text += newText;
-                model.setProcessOutput(text);
-                return this;
             }
+            return this;
+        }
+
+        @Override
+        public Appendable append(char c) throws IOException {
+            return append(Character.toString(c));
+        }
 
-            @Override
-            public Appendable append(char c) throws IOException {
-                return append(Character.toString(c));
+        private void lineCompleted(String text) {
+            for (LanguageInstall install : installs) {
+                final String id = install.getLanguage();
+                if (text.contains("Component " + id + ":")) {
+                    install.setState("downloading");
+                } else if (text.contains("(org.graalvm." + id + ",")) {
+                    install.setState("installing");
+                }
             }
-        };
+        }
     }
 
     @Function
@@ -294,18 +350,18 @@ public class NodeJsJava {
     }
 
     @ComputedProperty
-    static boolean labelJS(String missingLanguage) {
-        return !"js".equals(missingLanguage);
+    static boolean labelJS(List<String> missingLanguages) {
+        return !missingLanguages.contains("js");
     }
 
     @ComputedProperty
-    static boolean labelR(String missingLanguage) {
-        return !"R".equals(missingLanguage);
+    static boolean labelR(List<String> missingLanguages) {
+        return !missingLanguages.contains("R");
     }
 
     @ComputedProperty
-    static boolean labelRuby(String missingLanguage) {
-        return !"ruby".equals(missingLanguage);
+    static boolean labelRuby(List<String> missingLanguages) {
+        return !missingLanguages.contains("ruby");
     }
 
     @OnPropertyChange({ "algJS", "algR", "algRuby" })
@@ -354,7 +410,9 @@ public class NodeJsJava {
                 return;
             }
             setter.accept(false);
-            model.setMissingLanguage(language);
+            if (!model.getMissingLanguages().contains(language)) {
+                model.getMissingLanguages().add(language);
+            }
         }
     }
 
@@ -371,10 +429,42 @@ public class NodeJsJava {
     }
 
     static Status testGraalVMVersion(String path) throws IOException, InterruptedException {
+        return testGraalVMVersion(path, ProbeCache.getDefault());
+    }
+
+    /** Probes only what has changed since the GraalVM was probed last time.
+     * When nothing has, no process is started at all.
+     */
+    static Status testGraalVMVersion(String path, ProbeCache cache) throws IOException, InterruptedException {
         File nodeFile = new File(new File(new File(path), "bin"), "node");
         if (!nodeFile.isFile()) {
             return new Status().withLauncher(nodeFile + " not found");
         }
+        ProbeCache.Entry entry = cache.find(new File(path));
+        if (!entry.isComplete()) {
+            List<String> languages = entry.staleLanguages();
+            Status probed = probeGraalVM(nodeFile, languages);
+            if (probed.getLauncher() != null) {
+                return probed;
+            }
+            if (!entry.update(probed, languages)) {
+                return probed;
+            }
+        }
+        return entry.toStatus();
+    }
+
+    /** Starts the launcher and checks the languages, each in its own worker
+     * thread, so they initialize in parallel.
+     */
+    private static Status probeGraalVM(File nodeFile, List<String> languages) throws IOException, InterruptedException {
+        StringBuilder ids = new StringBuilder();
+        for (String id : languages) {
+            if (ids.length() > 0) {
+                ids.append(", ");
+            }
+            ids.append('\'').append(id).append('\'');
+        }
         ProcessBuilder b = new ProcessBuilder(
             nodeFile.getPath(),
             "--polyglot",
@@ -389,21 +479,38 @@ public class NodeJsJava {
           + "    return false;\n"
           + "  }\n"
           + "}\n"
-          + "console.log({\n"
+          + "var workers;\n"
+          + "try {\n"
+          + "  workers = require('worker_threads');\n"
+          + "} catch (e) {\n"
+          + "  workers = undefined;\n"
+          + "}\n"
+          + "function inWorker(lang) {\n"
+          + "  return new Promise((resolve) => {\n"
+          + "    var w = new workers.Worker(langCheck + '\\n' +\n"
+          + "      \"const {parentPort, workerData} = require('worker_threads');\\n\" +\n"
+          + "      \"parentPort.postMessage(langCheck(workerData));\",\n"
+          + "      { eval : true, workerData : lang }\n"
+          + "    );\n"
+          + "    w.on('message', resolve);\n"
+          + "    w.on('error', () => resolve(false));\n"
+          + "  });\n"
+          + "}\n"
+          + "var status = {\n"
           + "  'launcher' : null,\n"
           + "  'java' : typeof Java,\n"
-          + "  'js' : langCheck('js'),\n"
-          + "  'ruby' : langCheck('ruby'),\n"
-          + "  'R' : langCheck('R'),\n"
-          + "  'python' : langCheck('python'),\n"
-          + "  'worker_threads' : typeof require('worker_threads')\n"
+          + "  'worker_threads' : typeof workers\n"
+          + "};\n"
+          + "var languages = [" + ids + "];\n"
+          + "Promise.all(languages.map((lang) => workers ? inWorker(lang) : langCheck(lang))).then((results) => {\n"
+          + "  languages.forEach((lang, i) => status[lang] = results[i]);\n"
+          + "  console.log(JSON.stringify(status));\n"
           + "});"
         );
         b.redirectErrorStream(true);
         Process p = b.start();
-        InputStream is = p.getInputStream();
         StringBuilder sb = new StringBuilder();
-        drainProcessStream(is, sb, p);
+        ProcessPump.start(p, sb).waitFor();
         Status status;
         final Fn.Presenter presenter = Scripts.createPresenter();
         Contexts.Builder contextBuilder = Contexts.newBuilder("xhr4j");
@@ -417,18 +524,6 @@ public class NodeJsJava {
         return status;
     }
 
-    private static void drainProcessStream(InputStream is, Appendable sb, Process p) throws IOException, InterruptedException {
-        byte[] arr = new byte[1024];
-        for (;;) {
-            int len = is.read(arr);
-            if (len == -1) {
-                break;
-            }
-            sb.append(new String(arr, 0, len, "UTF-8"));
-            p.waitFor(100, TimeUnit.MILLISECONDS);
-        }
-    }
-
     @ComputedProperty
     static String algorithmJava(boolean algJava) {
         return algJava ? "true" : "false";
@@ -454,6 +549,16 @@ public class NodeJsJava {
         return unitTesting ? "true" : "false";
     }
 
+    @ComputedProperty
+    static String benchmarks(boolean benchmarking) {
+        return benchmarking ? "true" : "false";
+    }
+
+    @ComputedProperty
+    static String warmup(int warmupCalls) {
+        return Integer.toString(Math.max(0, warmupCalls));
+    }
+
     @ComputedProperty
     static boolean anySample(boolean algJava, boolean algJS, boolean algRuby, boolean algR) {
         return algJava || algJS || algRuby || algR;
@@ -498,93 +603,16 @@ public class NodeJsJava {
         if (!m2Repo.isDirectory()) {
             return false;
         }
-        final String version;
         try {
-            version = findArchetypeVersion();
+            return BundledArchetype.getDefault().install(m2Repo);
         } catch (IOException ex) {
             Exceptions.printStackTrace(ex);
             return false;
         }
-        final String baseName = "nodejs-archetype-" + version;
-        final String jarName = baseName + ".jar";
-        File archetype = new File(new File(new File(new File(new File(
-            new File(m2Repo, "com"), "oracle"), "graal-js"), "nodejs-archetype"),
-            version), jarName);
-        File pom = new File(archetype.getParentFile(), baseName + ".pom");
-        if (archetype.isFile() && pom.isFile()) {
-            return true;
-        }
-        if (!archetype.getParentFile().mkdirs()) {
-            return false;
-        }
-        InputStream is = NodeJsJavaModel.class.getResourceAsStream(ARCH_JAR_NAME);
-        if (is == null) {
-            return false;
-        }
-        try (FileOutputStream os = new FileOutputStream(archetype)) {
-            copyStreams(is, os);
-            is.close();
-        } catch (IOException ex) {
-            Exceptions.printStackTrace(ex);
-        }
-        try (
-            JarInputStream jar = new JarInputStream(NodeJsJavaModel.class.getResourceAsStream(ARCH_JAR_NAME));
-            FileOutputStream os = new FileOutputStream(pom)
-        ) {
-            for (;;) {
-                ZipEntry entry = jar.getNextEntry();
-                if (entry == null) {
-                    break;
-                }
-                if (entry.getName().endsWith("pom.xml")) {
-                    copyStreams(jar, os);
-                    break;
-                }
-                jar.closeEntry();
-            }
-        } catch (IOException ex) {
-            Exceptions.printStackTrace(ex);
-        }
-        return archetype.isFile() && pom.isFile();
     }
 
     static String findArchetypeVersion() throws IOException {
-        try (
-            final InputStream is = NodeJsJavaModel.class.getResourceAsStream(ARCH_JAR_NAME);
-            final JarInputStream jar = new JarInputStream(ioIfNull(is));
-        ) {
-            for (;;) {
-                ZipEntry entry = jar.getNextEntry();
-                if (entry == null) {
-                    break;
-                }
-                if (entry.getName().endsWith("pom.properties")) {
-                    Properties p = new Properties();
-                    p.load(jar);
-                    return p.getProperty("version");
-                }
-                jar.closeEntry();
-            }
-            throw new FileNotFoundException("pom.properties not found");
-        }
-    }
-
-    private static void copyStreams(InputStream is, final OutputStream os) throws IOException {
-        byte[] arr = new byte[4096];
-        for (;;) {
-            int len = is.read(arr);
-            if (len == -1) {
-                break;
-            }
-            os.write(arr, 0, len);
-        }
-    }
-
-    private static InputStream ioIfNull(InputStream is) throws IOException {
-        if (is == null) {
-            throw new FileNotFoundException("Cannot find bundled archetype");
-        }
-        return is;
+        return BundledArchetype.getDefault().getVersion();
     }
 
     enum ServerCode {
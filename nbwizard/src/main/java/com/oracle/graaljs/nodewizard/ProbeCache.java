@@ -0,0 +1,192 @@
+/**
+ * Copyright (c) 2017 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or data
+ * (collectively the "Software"), free of charge and under any and all copyright
+ * rights in the Software, and any and all patent rights owned or freely
+ * licensable by each licensor hereunder covering either (i) the unmodified
+ * Software as contributed to or provided by such licensor, or (ii) the Larger
+ * Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ *
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ *
+ * The above copyright notice and either this complete permission notice or at a
+ * minimum a reference to the UPL must be included in all copies or substantial
+ * portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.oracle.graaljs.nodewizard;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.prefs.BackingStoreException;
+import java.util.prefs.Preferences;
+import org.openide.util.Exceptions;
+import org.openide.util.NbPreferences;
+
+/** Results of probing GraalVM installations, kept between IDE sessions.
+ * An installation is fingerprinted by its {@code release} file and
+ * {@code node} launcher, each language by modification time of its
+ * directory in {@code languages}. Only languages whose fingerprint has
+ * changed since the last probe need to be probed again.
+ */
+final class ProbeCache {
+    static final List<String> LANGUAGES = Arrays.asList("js", "ruby", "R", "python");
+
+    private final Preferences root;
+
+    ProbeCache(Preferences root) {
+        this.root = root;
+    }
+
+    static ProbeCache getDefault() {
+        return new ProbeCache(NbPreferences.forModule(ProbeCache.class).node("graalvmProbes"));
+    }
+
+    Entry find(File graalvm) {
+        final String path = graalvm.getAbsolutePath();
+        Preferences node = root.node(Integer.toHexString(path.hashCode()));
+        if (!path.equals(node.get("path", path))) {
+            // another installation with the same hash code
+            clear(node);
+        }
+        return new Entry(node, path, fingerprint(graalvm), languageFingerprints(graalvm));
+    }
+
+    private static String fingerprint(File graalvm) {
+        File release = new File(graalvm, "release");
+        File node = new File(new File(graalvm, "bin"), "node");
+        return release.length() + ":" + release.lastModified() + ":" + node.lastModified();
+    }
+
+    private static Map<String, String> languageFingerprints(File graalvm) {
+        File languages = new File(new File(graalvm, "jre"), "languages");
+        if (!languages.isDirectory()) {
+            languages = new File(graalvm, "languages");
+        }
+        Map<String, String> fingerprints = new LinkedHashMap<>();
+        for (String id : LANGUAGES) {
+            File dir = new File(languages, id);
+            fingerprints.put(id, dir.isDirectory() ? Long.toString(dir.lastModified()) : "none");
+        }
+        return fingerprints;
+    }
+
+    private static void clear(Preferences node) {
+        try {
+            node.clear();
+        } catch (BackingStoreException ex) {
+            Exceptions.printStackTrace(ex);
+        }
+    }
+
+    /** Cached state of one installation. */
+    static final class Entry {
+        private final Preferences node;
+        private final String path;
+        private final String fingerprint;
+        private final Map<String, String> languages;
+
+        Entry(Preferences node, String path, String fingerprint, Map<String, String> languages) {
+            this.node = node;
+            this.path = path;
+            this.fingerprint = fingerprint;
+            this.languages = languages;
+        }
+
+        /** Languages to probe, all of them if the installation has changed. */
+        List<String> staleLanguages() {
+            final boolean changed = !fingerprint.equals(node.get("fingerprint", null));
+            List<String> stale = new ArrayList<>();
+            for (Map.Entry<String, String> e : languages.entrySet()) {
+                if (changed || !e.getValue().equals(node.get("lang." + e.getKey(), null))) {
+                    stale.add(e.getKey());
+                }
+            }
+            return stale;
+        }
+
+        /** Is the launcher itself known, so it doesn't need to be started? */
+        boolean isComplete() {
+            return node.get("java", null) != null && staleLanguages().isEmpty();
+        }
+
+        /** Remembers result of a probe of given languages. A probe that
+         * didn't find out what Java interop and worker threads are is not
+         * remembered, the installation is probed again next time.
+         * @return {@code false} if the probe wasn't remembered
+         */
+        boolean update(Status probed, List<String> probedLanguages) {
+            if (probed.getJava() == null || probed.getWorker_threads() == null) {
+                node.remove("java");
+                return false;
+            }
+            node.put("path", path);
+            node.put("fingerprint", fingerprint);
+            node.put("java", probed.getJava());
+            node.put("worker_threads", probed.getWorker_threads());
+            for (String id : probedLanguages) {
+                node.put("lang." + id, languages.get(id));
+                node.putBoolean("ok." + id, isInstalled(probed, id));
+            }
+            try {
+                node.flush();
+            } catch (BackingStoreException ex) {
+                Exceptions.printStackTrace(ex);
+            }
+            return true;
+        }
+
+        Status toStatus() {
+            return new Status()
+                .withJava(node.get("java", null))
+                .withWorker_threads(node.get("worker_threads", null))
+                .withJs(node.getBoolean("ok.js", false))
+                .withRuby(node.getBoolean("ok.ruby", false))
+                .withR(node.getBoolean("ok.R", false))
+                .withPython(node.getBoolean("ok.python", false));
+        }
+    }
+
+    static boolean isInstalled(Status status, String id) {
+        switch (id) {
+            case "js":
+                return status.isJs();
+            case "ruby":
+                return status.isRuby();
+            case "R":
+                return status.isR();
+            case "python":
+                return status.isPython();
+            default:
+                throw new IllegalStateException(id);
+        }
+    }
+}
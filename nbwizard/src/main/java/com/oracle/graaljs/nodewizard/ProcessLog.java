@@ -0,0 +1,148 @@
+/**
+ * Copyright (c) 2017 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or data
+ * (collectively the "Software"), free of charge and under any and all copyright
+ * rights in the Software, and any and all patent rights owned or freely
+ * licensable by each licensor hereunder covering either (i) the unmodified
+ * Software as contributed to or provided by such licensor, or (ii) the Larger
+ * Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ *
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ *
+ * The above copyright notice and either this complete permission notice or at a
+ * minimum a reference to the UPL must be included in all copies or substantial
+ * portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.oracle.graaljs.nodewizard;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/** Process output kept as a bounded list of lines. Only the lines that
+ * change are written into the list, so the UI observing it receives
+ * deltas rather than the whole log. Backspace and carriage return move
+ * the cursor within the last line, so progress bars are redrawn in place.
+ * When the list grows over its limit, the oldest lines are dropped.
+ */
+final class ProcessLog implements Appendable {
+    static final int MAX_LINES = Integer.getInteger("graaljs.nodewizard.maxLogLines", 1000);
+
+    private final List<String> lines;
+    private final int maxLines;
+    private final StringBuilder current = new StringBuilder();
+    private int column;
+    private boolean open;
+
+    ProcessLog(List<String> lines, int maxLines) {
+        if (maxLines < 1) {
+            throw new IllegalArgumentException("maxLines: " + maxLines);
+        }
+        this.lines = lines;
+        this.maxLines = maxLines;
+    }
+
+    /** Starts a new log. Clears the lines and forgets the unfinished one.
+     */
+    synchronized void clear() {
+        lines.clear();
+        current.setLength(0);
+        column = 0;
+        open = false;
+    }
+
+    @Override
+    public Appendable append(CharSequence csq) {
+        return append(csq, 0, csq.length());
+    }
+
+    @Override
+    public synchronized Appendable append(CharSequence csq, int start, int end) {
+        List<String> finished = new ArrayList<>();
+        for (int i = start; i < end; i++) {
+            char ch = csq.charAt(i);
+            switch (ch) {
+                case '\n':
+                    finished.add(current.toString());
+                    current.setLength(0);
+                    column = 0;
+                    break;
+                case '\r':
+                    column = 0;
+                    break;
+                case '\b':
+                    if (column > 0) {
+                        column--;
+                    }
+                    break;
+                default:
+                    if (column < current.length()) {
+                        current.setCharAt(column, ch);
+                    } else {
+                        current.append(ch);
+                    }
+                    column++;
+            }
+        }
+        publish(finished);
+        return this;
+    }
+
+    @Override
+    public Appendable append(char c) {
+        return append(Character.toString(c));
+    }
+
+    private void publish(List<String> finished) {
+        if (finished.isEmpty()) {
+            if (open) {
+                lines.set(lines.size() - 1, current.toString());
+            } else if (current.length() > 0) {
+                lines.add(current.toString());
+                open = true;
+            }
+            return;
+        }
+        int from = 0;
+        if (open) {
+            lines.set(lines.size() - 1, finished.get(0));
+            open = false;
+            from = 1;
+        }
+        from = Math.max(from, finished.size() - maxLines);
+        if (from < finished.size()) {
+            lines.addAll(finished.subList(from, finished.size()));
+        }
+        if (current.length() > 0) {
+            lines.add(current.toString());
+            open = true;
+        }
+        while (lines.size() > maxLines) {
+            lines.remove(0);
+        }
+    }
+}
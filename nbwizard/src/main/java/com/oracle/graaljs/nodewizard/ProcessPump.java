@@ -0,0 +1,152 @@
+/**
+ * Copyright (c) 2017 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or data
+ * (collectively the "Software"), free of charge and under any and all copyright
+ * rights in the Software, and any and all patent rights owned or freely
+ * licensable by each licensor hereunder covering either (i) the unmodified
+ * Software as contributed to or provided by such licensor, or (ii) the Larger
+ * Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ *
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ *
+ * The above copyright notice and either this complete permission notice or at a
+ * minimum a reference to the UPL must be included in all copies or substantial
+ * portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.oracle.graaljs.nodewizard;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/** Copies output of a process to an {@link Appendable}. A dedicated thread
+ * reads as fast as the process writes and decodes the bytes by a streaming
+ * UTF-8 decoder, so characters split between two reads stay intact. The
+ * text is handed to the appendable in batches, at most once per
+ * {@link #FRAME_MILLIS}, to keep the UI responsive with chatty processes.
+ */
+final class ProcessPump implements Runnable {
+    static final long FRAME_MILLIS = 40;
+    private static final ScheduledExecutorService FRAMES = Executors.newSingleThreadScheduledExecutor((r) -> {
+        Thread t = new Thread(r, "Process Output Frames");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private final Process process;
+    private final Reader reader;
+    private final Appendable sink;
+    private final StringBuilder pending = new StringBuilder();
+    private final CompletableFuture<Integer> exit = new CompletableFuture<>();
+    private ScheduledFuture<?> frames;
+
+    private ProcessPump(Process process, Appendable sink) {
+        this.process = process;
+        this.reader = new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8.newDecoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE));
+        this.sink = sink;
+    }
+
+    static ProcessPump start(Process process, Appendable sink) {
+        ProcessPump pump = new ProcessPump(process, sink);
+        pump.frames = FRAMES.scheduleAtFixedRate(pump::flush, FRAME_MILLIS, FRAME_MILLIS, TimeUnit.MILLISECONDS);
+        Thread t = new Thread(pump, "Process Output Pump");
+        t.setDaemon(true);
+        t.start();
+        return pump;
+    }
+
+    @Override
+    public void run() {
+        char[] buffer = new char[8192];
+        try (Reader r = reader) {
+            for (;;) {
+                int len = r.read(buffer);
+                if (len == -1) {
+                    break;
+                }
+                synchronized (pending) {
+                    pending.append(buffer, 0, len);
+                }
+            }
+            frames.cancel(false);
+            flush();
+            exit.complete(process.waitFor());
+        } catch (IOException | InterruptedException ex) {
+            frames.cancel(false);
+            flush();
+            exit.completeExceptionally(ex);
+        }
+    }
+
+    /** Hands the text read so far to the appendable. Synchronized, so the
+     * last batch cannot overtake a previous one.
+     */
+    private synchronized void flush() {
+        final String text;
+        synchronized (pending) {
+            if (pending.length() == 0) {
+                return;
+            }
+            text = pending.toString();
+            pending.setLength(0);
+        }
+        try {
+            sink.append(text);
+        } catch (IOException ex) {
+            exit.completeExceptionally(ex);
+        }
+    }
+
+    /** Completes with exit code once the process exits and all its output
+     * is delivered.
+     */
+    CompletableFuture<Integer> exit() {
+        return exit;
+    }
+
+    int waitFor() throws IOException, InterruptedException {
+        try {
+            return exit.get();
+        } catch (ExecutionException ex) {
+            if (ex.getCause() instanceof IOException) {
+                throw (IOException) ex.getCause();
+            }
+            throw new IOException(ex.getCause());
+        }
+    }
+}
@@ -39,14 +39,24 @@
  */
 package com.oracle.graaljs.nodewizard;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.FileVisitResult;
 import java.nio.file.FileVisitor;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.prefs.Preferences;
 import org.netbeans.junit.NbTestCase;
+import org.openide.util.NbPreferences;
 
 public class NodeJsJavaTest extends NbTestCase {
 
@@ -73,6 +83,22 @@ public class NodeJsJavaTest extends NbTestCase {
         assertOneFile(home, ".pom");
     }
 
+    public void testInstalledArchetypeIsNotOverwritten() throws Exception {
+        File repo = new File(new File(getWorkDir(), ".m2"), "repository");
+        final String version = NodeJsJava.findArchetypeVersion();
+        File dir = new File(new File(new File(new File(new File(
+            new File(repo, "com"), "oracle"), "graal-js"), "nodejs-archetype"), version);
+        assertTrue("Version dir created", dir.mkdirs());
+        File jar = new File(dir, "nodejs-archetype-" + version + ".jar");
+        File pom = new File(dir, "nodejs-archetype-" + version + ".pom");
+        final byte[] ownBuild = { 'P', 'K', 3, 4 };
+        Files.write(jar.toPath(), ownBuild);
+
+        assertTrue("Installed", NodeJsJava.verifyArchetypeExists(getWorkDirPath()));
+        assertTrue("Missing pom written", pom.isFile());
+        assertTrue("Own build kept", Arrays.equals(ownBuild, Files.readAllBytes(jar.toPath())));
+    }
+
     public void testCanReadArchetypeVersion() throws Exception {
         String version = NodeJsJava.findArchetypeVersion();
         assertNotNull("Finds some version", version);
@@ -89,6 +115,115 @@ public class NodeJsJavaTest extends NbTestCase {
         assertEquals(prefix + "workers", "object", status.getWorker_threads());
     }
 
+    public void testProbeCacheReprobesChangedLanguagesOnly() throws Exception {
+        Preferences prefs = NbPreferences.forModule(NodeJsJavaTest.class).node(getName());
+        prefs.removeNode();
+        prefs = NbPreferences.forModule(NodeJsJavaTest.class).node(getName());
+        ProbeCache cache = new ProbeCache(prefs);
+
+        File graalvm = new File(getWorkDir(), "graalvm");
+        File languages = new File(graalvm, "languages");
+        File ruby = new File(languages, "ruby");
+        assertTrue("js dir created", new File(languages, "js").mkdirs());
+        assertTrue("ruby dir created", ruby.mkdirs());
+        File release = new File(graalvm, "release");
+        Files.write(release.toPath(), "GRAALVM_VERSION=19.3.1\n".getBytes(StandardCharsets.UTF_8));
+
+        ProbeCache.Entry entry = cache.find(graalvm);
+        assertFalse("Nothing known yet", entry.isComplete());
+        assertEquals(ProbeCache.LANGUAGES, entry.staleLanguages());
+        entry.update(new Status().withJava("object").withWorker_threads("object").withJs(true).withRuby(true), entry.staleLanguages());
+
+        entry = new ProbeCache(prefs).find(graalvm);
+        assertTrue("Everything known", entry.isComplete());
+        assertTrue("Ruby installed", entry.toStatus().isRuby());
+        assertFalse("R not installed", entry.toStatus().isR());
+
+        assertTrue("R dir created", new File(languages, "R").mkdirs());
+        entry = cache.find(graalvm);
+        assertEquals(Arrays.asList("R"), entry.staleLanguages());
+        entry.update(new Status().withJava("object").withWorker_threads("object").withR(true), entry.staleLanguages());
+        entry = cache.find(graalvm);
+        assertTrue("R installed", entry.toStatus().isR());
+        assertTrue("Ruby still installed", entry.toStatus().isRuby());
+
+        assertTrue("release changed", release.setLastModified(release.lastModified() - 10000));
+        assertEquals("All probed again", ProbeCache.LANGUAGES, cache.find(graalvm).staleLanguages());
+
+        entry = cache.find(graalvm);
+        assertFalse("Failed probe not remembered", entry.update(new Status().withJs(true), entry.staleLanguages()));
+        assertFalse("Probed again next time", cache.find(graalvm).isComplete());
+    }
+
+    public void testProcessPumpKeepsCharactersSplitBetweenReads() throws Exception {
+        final String text = "\u017elu\u0165ou\u010dk\u00fd k\u016f\u0148\n";
+        final byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        Process p = new Process() {
+            private int at;
+
+            @Override
+            public OutputStream getOutputStream() {
+                return new ByteArrayOutputStream();
+            }
+
+            @Override
+            public InputStream getInputStream() {
+                return new InputStream() {
+                    @Override
+                    public int read() {
+                        return at < bytes.length ? bytes[at++] & 0xff : -1;
+                    }
+
+                    @Override
+                    public int read(byte[] b, int off, int len) {
+                        if (at == bytes.length) {
+                            return -1;
+                        }
+                        b[off] = bytes[at++];
+                        return 1;
+                    }
+                };
+            }
+
+            @Override
+            public InputStream getErrorStream() {
+                return new ByteArrayInputStream(new byte[0]);
+            }
+
+            @Override
+            public int waitFor() {
+                return 7;
+            }
+
+            @Override
+            public int exitValue() {
+                return 7;
+            }
+
+            @Override
+            public void destroy() {
+            }
+        };
+        StringBuilder sb = new StringBuilder();
+        assertEquals("Exit code reported", 7, ProcessPump.start(p, sb).waitFor());
+        assertEquals("All characters decoded", text, sb.toString());
+    }
+
+    public void testProcessLogRedrawsProgressAndKeepsLastLines() throws Exception {
+        List<String> lines = new ArrayList<>();
+        ProcessLog log = new ProcessLog(lines, 3);
+        log.append("Downloading\n[    ]");
+        log.append("\b\b\b\b\b=   ]");
+        log.append("\b\b\b\b\b==  ]");
+        assertEquals("Progress redrawn in place", Arrays.asList("Downloading", "[==  ]"), lines);
+
+        log.append("\r[====]\nInstalling\nDone\n");
+        assertEquals("Only last lines kept", Arrays.asList("[====]", "Installing", "Done"), lines);
+
+        log.append("one\ntwo\nthree\nfour\n");
+        assertEquals("Long batch trimmed", Arrays.asList("two", "three", "four"), lines);
+    }
+
     private void assertOneFile(File home, String ext) throws IOException {
         Path[] found = new Path[1];
 